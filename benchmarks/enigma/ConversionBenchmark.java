@@ -0,0 +1,63 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks of the per-character conversion path: one operation is one
+ *  character, so the reported rate is in characters per second.
+ *  @author Yohan Yan
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ConversionBenchmark {
+
+    /** Create the machine and its parts. */
+    @Setup
+    public void setUp() {
+        _machine = Naval.machine();
+        _rotor = _machine.selectRotors()[_machine.numRotors() - 1];
+        _permutation = _rotor.permutation();
+    }
+
+    /** Permutation.permute on an index. */
+    @Benchmark
+    public int permute() {
+        _c = _permutation.permute(_c);
+        return _c;
+    }
+
+    /** Rotor.convertForward at the rotor's current setting. */
+    @Benchmark
+    public int convertForward() {
+        _c = _rotor.convertForward(_c);
+        return _c;
+    }
+
+    /** Machine.convert on an index, including stepping. */
+    @Benchmark
+    public int convert() {
+        _c = _machine.convert(_c);
+        return _c;
+    }
+
+    /** The configured machine. */
+    private Machine _machine;
+
+    /** Its rightmost rotor. */
+    private Rotor _rotor;
+
+    /** The permutation of _rotor. */
+    private Permutation _permutation;
+
+    /** The last character converted, fed back in as the next input. */
+    private int _c;
+
+}
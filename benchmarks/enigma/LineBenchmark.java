@@ -0,0 +1,106 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks of whole message lines of various lengths.  Besides lines
+ *  per second, the "bytes" counter reports input characters per second.
+ *  @author Yohan Yan
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LineBenchmark {
+
+    /** Number of letters in the message line. */
+    @Param({ "80", "4096", "1048576" })
+    public int length;
+
+    /** Counts the characters processed. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        /** Number of input characters processed. */
+        public long bytes;
+
+        /** Reset the count for each iteration. */
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    /** Create the machine and the message line. */
+    @Setup
+    public void setUp() {
+        _machine = Naval.machine();
+        _line = Naval.message(length);
+        _chars = _line.toCharArray();
+        _converted = new char[_chars.length];
+        _bytes = _line.getBytes();
+        _convertedBytes = new byte[_bytes.length];
+        String config = Naval.tempFile(Naval.CONFIG);
+        _main = Naval.main(config, config);
+        _main.readConfig();
+    }
+
+    /** Machine.convert on a String. */
+    @Benchmark
+    public String convertString(Bytes counter) {
+        counter.bytes += _line.length();
+        return _machine.convert(_line);
+    }
+
+    /** Machine.convert on a character buffer. */
+    @Benchmark
+    public int convertChars(Bytes counter) {
+        counter.bytes += _chars.length;
+        return _machine.convert(_chars, 0, _chars.length, _converted);
+    }
+
+    /** Machine.convert on a byte buffer. */
+    @Benchmark
+    public int convertBytes(Bytes counter) {
+        counter.bytes += _bytes.length;
+        return _machine.convert(_bytes, _convertedBytes);
+    }
+
+    /** Main.printMessageLine, formatting into groups of five. */
+    @Benchmark
+    public void printMessageLine(Bytes counter) {
+        counter.bytes += _line.length();
+        _main.printMessageLine(_line);
+    }
+
+    /** The configured machine. */
+    private Machine _machine;
+
+    /** The message line. */
+    private String _line;
+
+    /** The characters of _line. */
+    private char[] _chars;
+
+    /** Receives converted characters. */
+    private char[] _converted;
+
+    /** The ASCII encoding of _line. */
+    private byte[] _bytes;
+
+    /** Receives converted bytes. */
+    private byte[] _convertedBytes;
+
+    /** Formats message lines, discarding the results. */
+    private Main _main;
+
+}
@@ -0,0 +1,96 @@
+package enigma;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks of Main: parsing and reading the configuration (which is
+ *  cached after the first read), and processing whole input files from
+ *  end to end.  Besides operations per second, the "bytes" counter
+ *  reports input bytes per second.
+ *  @author Yohan Yan
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MainBenchmark {
+
+    /** Number of messages in the input file. */
+    @Param({ "1", "1000" })
+    public int messages;
+
+    /** Number of letters in each message. */
+    @Param({ "100", "100000" })
+    public int length;
+
+    /** Counts the bytes processed. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        /** Number of input bytes processed. */
+        public long bytes;
+
+        /** Reset the count for each iteration. */
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    /** Create the configuration and input files. */
+    @Setup
+    public void setUp() {
+        _config = Naval.tempFile(Naval.CONFIG);
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < messages; i += 1) {
+            input.append(Naval.SETTINGS).append('\n');
+            input.append(Naval.message(length)).append('\n');
+        }
+        _input = Naval.tempFile(input.toString());
+        _configSize = new File(_config).length();
+        _inputSize = new File(_input).length();
+    }
+
+    /** Configuration.parse on the text of the naval configuration. */
+    @Benchmark
+    public Configuration parseConfig(Bytes counter) {
+        counter.bytes += _configSize;
+        return Configuration.parse(Naval.CONFIG);
+    }
+
+    /** Main.readConfig on the naval configuration, which after the first
+     *  call is found in the cache. */
+    @Benchmark
+    public Machine readConfig(Bytes counter) {
+        counter.bytes += _configSize;
+        return new Main(new String[] { _config }).readConfig();
+    }
+
+    /** Main.process on the whole input file, including opening and
+     *  closing the files (Main closes the files it opens). */
+    @Benchmark
+    public void process(Bytes counter) {
+        counter.bytes += _inputSize;
+        Naval.main(_config, _input).process();
+    }
+
+    /** Name of the configuration file. */
+    private String _config;
+
+    /** Name of the input file. */
+    private String _input;
+
+    /** Sizes of the configuration and input files, in bytes. */
+    private long _configSize, _inputSize;
+
+}
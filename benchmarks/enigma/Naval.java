@@ -0,0 +1,82 @@
+package enigma;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+/** Fixtures shared by the benchmarks: the naval Enigma configuration and
+ *  generated message text.
+ *  @author Yohan Yan
+ */
+class Naval {
+
+    /** The naval rotors, in configuration-file format. */
+    static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n"
+        + " 5 3\n"
+        + " I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME     (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " III MV    (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " IV MJ     (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + " V MZ      (AVOLDRWFIUQ)(BZKSMNHYC) (EGTJPX)\n"
+        + " VI MZM    (AJQDVLEOZWIYTS) (CGMNHFUX) (BPRK)\n"
+        + " VII MZM   (ANOUPFRIMBZTLWKSVEGCJYDHXQ)\n"
+        + " VIII MZM  (AFLSETWUNDHOZVICQ) (BKJ) (GXY) (MPR)\n"
+        + " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " Gamma N   (AFNIRLBSQWVXGUZDKMTPCOYJHE)\n"
+        + " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "           (RX) (SZ) (TV)\n"
+        + " C R       (AR) (BD) (CO) (EJ) (FN) (GT) (HK) (IV) (LM) (PW)\n"
+        + "           (QZ) (SX) (UY)\n";
+
+    /** A settings line for the naval machine. */
+    static final String SETTINGS =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /** Return the name of a temporary file containing TEXT. */
+    static String tempFile(String text) {
+        try {
+            File file = File.createTempFile("enigma", ".txt");
+            file.deleteOnExit();
+            try (Writer out = new FileWriter(file)) {
+                out.write(text);
+            }
+            return file.getPath();
+        } catch (IOException excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+
+    /** Return a Main reading its configuration from CONFIGFILE, its input
+     *  from INPUT, and discarding its output. */
+    static Main main(String configFile, String input) {
+        return new Main(new String[] { configFile, input, "/dev/null" });
+    }
+
+    /** Return a naval machine set up according to SETTINGS. */
+    static Machine machine() {
+        Main main = new Main(new String[] { tempFile(CONFIG) });
+        Machine result = main.readConfig();
+        main.setUp(result, SETTINGS);
+        return result;
+    }
+
+    /** Return LENGTH random upper-case letters, with a blank after every
+     *  word of five to eight letters. */
+    static String message(int length) {
+        Random random = new Random(length);
+        StringBuilder result = new StringBuilder(length + length / 5);
+        for (int i = 0, word = 0; i < length; i += 1) {
+            result.append((char) ('A' + random.nextInt(26)));
+            word += 1;
+            if (word >= 5 + random.nextInt(4)) {
+                result.append(' ');
+                word = 0;
+            }
+        }
+        return result.toString();
+    }
+
+}
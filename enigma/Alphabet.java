@@ -1,5 +1,7 @@
 package enigma;
 
+import java.util.Arrays;
+
 /** An alphabet of encodable characters.  Provides a mapping from characters
  *  to and from indices into the alphabet.
  *  @author P. N. Hilfinger
@@ -20,4 +22,22 @@ abstract class Alphabet {
      *  the alphabet. This is the inverse of toChar(). */
     abstract int toInt(char ch);
 
+    /** Return the characters of TEXT other than whitespace as indices in
+     *  this alphabet, upper-casing those that are not in it. */
+    int[] indices(String text) {
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            char c = text.charAt(i);
+            if (Machine.isSpace(c)) {
+                continue;
+            } else if (!contains(c)) {
+                c = Character.toUpperCase(c);
+            }
+            result[n] = toInt(c);
+            n += 1;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
 }
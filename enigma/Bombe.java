@@ -0,0 +1,430 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static enigma.EnigmaException.*;
+
+/** A search for the keys under which a ciphertext could contain a known
+ *  stretch of plaintext (a crib), in the manner of the Turing-Welchman
+ *  bombe.  Each position of the crib pairs a plaintext letter with a
+ *  ciphertext letter; together these pairs form the menu, a graph on the
+ *  letters whose edges are labeled with positions.  Since the plugboard P
+ *  is an involution, if the rotors at position I perform S_I, then
+ *  P(B) = S_I(P(A)) for each edge A-B at I.  For each rotor order and
+ *  start setting, every hypothesis P(A) = X for the most connected menu
+ *  letter A is closed under these implications and the symmetry of the
+ *  plugboard (the diagonal board), and a hypothesis is rejected as soon as
+ *  it implies two partners for some letter.  A hypothesis reached while
+ *  closing a rejected one is rejected with it.  Keys with a surviving
+ *  hypothesis are stops.
+ *
+ *  The pairs of each closure are kept as bitsets, one per letter.  The
+ *  substitution at each position is composed from the rightmost rotor's
+ *  tables and a fused table for the rest of the machine, which is
+ *  computed once per configuration of the slower rotors and reused by
+ *  every start setting and position that shares it, while it is among
+ *  the FUSED_TABLES most recently used by its task; the rotor settings
+ *  at each position come from stepping the machine, so turnovers
+ *  (including double steps) are exact.
+ *  @author Yohan Yan
+ */
+class Bombe {
+
+    /** Number of keys tried by a single task. */
+    static final int LEAF = 1 << 12;
+
+    /** Maximum number of fused tables kept by each task. */
+    static final int FUSED_TABLES = 1 << 10;
+
+    /** A bombe for CIPHERTEXT using copies of ENIGMA, where CRIB is the
+     *  plaintext of the ciphertext starting at position OFFSET.
+     *  Whitespace is ignored, and lower-case letters not in the alphabet
+     *  are upper-cased. */
+    Bombe(Machine enigma, String ciphertext, String crib, int offset) {
+        _enigma = enigma;
+        _alphabet = enigma.alphabet();
+        _size = _alphabet.size();
+        if (_size > Long.SIZE) {
+            throw error("alphabet too large for the bombe");
+        }
+        int[] cipher = _alphabet.indices(ciphertext);
+        _crib = _alphabet.indices(crib);
+        if (offset < 0 || offset + _crib.length > cipher.length) {
+            throw error("crib does not fit the ciphertext");
+        }
+        _offset = offset;
+        _orders = KeySearch.rotorOrders(enigma);
+        long settings = 1;
+        for (int x = 1; x < enigma.numRotors(); x += 1) {
+            settings *= _size;
+        }
+        _settingsCount = settings;
+        buildMenu(cipher);
+    }
+
+    /** Return the number of keys (rotor orders and settings) tried. */
+    long numCandidates() {
+        return _orders.size() * _settingsCount;
+    }
+
+    /** Return the stops found by trying every key, using the threads of
+     *  POOL, in the order in which the keys are enumerated. */
+    List<Stop> search(ForkJoinPool pool) {
+        return pool.invoke(new SearchTask(0, numCandidates()));
+    }
+
+    /** A key consistent with the crib, with the plugboard connections
+     *  its surviving hypothesis implies. */
+    final class Stop {
+
+        /** A stop at the key with rotor numbers ROTORIDS and settings
+         *  SETTINGS for the rotors after the reflector, whose hypothesis
+         *  implies that letter C is connected to PARTNER[C] for each C
+         *  with PARTNER[C] >= 0.  The arrays are copied. */
+        private Stop(int[] rotorIds, int[] settings, int[] partner) {
+            _rotorIds = rotorIds.clone();
+            _settings = new int[rotorIds.length];
+            System.arraycopy(settings, 0, _settings, 1, settings.length);
+            _partner = partner.clone();
+        }
+
+        /** Return the names of my rotors, reflector first. */
+        String[] rotors() {
+            String[] names = new String[_rotorIds.length];
+            for (int x = 0; x < names.length; x += 1) {
+                names[x] = _enigma.availableRotors()[_rotorIds[x]].name();
+            }
+            return names;
+        }
+
+        /** Return my rotor settings, as for Machine.setRotors. */
+        String settings() {
+            StringBuilder result = new StringBuilder();
+            for (int x = 1; x < _settings.length; x += 1) {
+                result.append(_alphabet.toChar(_settings[x]));
+            }
+            return result.toString();
+        }
+
+        /** Return the plugboard connections implied by my hypothesis
+         *  between distinct letters, as cycles acceptable to
+         *  Permutation.  Other letters may be connected as well. */
+        String plugboard() {
+            StringBuilder result = new StringBuilder();
+            for (int c = 0; c < _size; c += 1) {
+                if (_partner[c] > c) {
+                    if (result.length() > 0) {
+                        result.append(' ');
+                    }
+                    result.append('(').append(_alphabet.toChar(c))
+                        .append(_alphabet.toChar(_partner[c])).append(')');
+                }
+            }
+            return result.toString();
+        }
+
+        /** Return the machine state for my key, with no plugboard. */
+        MachineState state() {
+            return new MachineState(_rotorIds.clone(), _settings.clone(),
+                                    null);
+        }
+
+        @Override
+        public String toString() {
+            return String.join(" ", rotors()) + " " + settings() + " "
+                + plugboard();
+        }
+
+        /** Numbers of my rotors. */
+        private final int[] _rotorIds;
+
+        /** Settings of my rotors, reflector first. */
+        private final int[] _settings;
+
+        /** Implied partners, or -1. */
+        private final int[] _partner;
+    }
+
+    /** A fork/join task trying keys numbered FROM .. TO-1, numbered as in
+     *  KeySearch. */
+    private class SearchTask extends RecursiveTask<List<Stop>> {
+
+        /** A task trying keys FROM .. TO-1. */
+        SearchTask(long from, long to) {
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected List<Stop> compute() {
+            if (_to - _from <= LEAF) {
+                return new Worker().search(_from, _to);
+            }
+            long mid = _from + (_to - _from) / 2;
+            SearchTask left = new SearchTask(_from, mid);
+            left.fork();
+            List<Stop> right = new SearchTask(mid, _to).compute();
+            List<Stop> result = left.join();
+            result.addAll(right);
+            return result;
+        }
+
+        /** Range of keys tried. */
+        private final long _from, _to;
+    }
+
+    /** Record the menu formed by _crib and CIPHER, and choose the letter
+     *  from which hypotheses start. */
+    private void buildMenu(int[] cipher) {
+        int n = _crib.length;
+        int[] degree = new int[_size];
+        for (int i = 0; i < n; i += 1) {
+            int a = _crib[i], b = cipher[_offset + i];
+            if (a == b) {
+                throw error("crib letter %c enciphers to itself",
+                            _alphabet.toChar(a));
+            }
+            degree[a] += 1;
+            degree[b] += 1;
+        }
+        _edgeStart = new int[_size + 1];
+        for (int c = 0; c < _size; c += 1) {
+            _edgeStart[c + 1] = _edgeStart[c] + degree[c];
+        }
+        _edgeTo = new int[2 * n];
+        _edgePos = new int[2 * n];
+        int[] next = _edgeStart.clone();
+        for (int i = 0; i < n; i += 1) {
+            int a = _crib[i], b = cipher[_offset + i];
+            _edgeTo[next[a]] = b;
+            _edgePos[next[a]] = i;
+            next[a] += 1;
+            _edgeTo[next[b]] = a;
+            _edgePos[next[b]] = i;
+            next[b] += 1;
+        }
+        _start = 0;
+        for (int c = 1; c < _size; c += 1) {
+            if (degree[c] > degree[_start]) {
+                _start = c;
+            }
+        }
+    }
+
+    /** The state used by one task: a copy of the machine, the rotor
+     *  positions along the crib, cached fused tables, and the closure
+     *  being computed. */
+    private class Worker {
+
+        /** A worker with its own copy of the machine. */
+        Worker() {
+            _machine = _enigma.copy();
+            int n = _crib.length;
+            _fast = new int[n];
+            _slow = new int[n][];
+            _closure = new long[_size];
+            _stack = new int[_size * _size];
+            _partner = new int[_size];
+        }
+
+        /** Return the stops among keys FROM .. TO-1. */
+        List<Stop> search(long from, long to) {
+            List<Stop> result = new ArrayList<>();
+            int numRotors = _machine.numRotors();
+            int[] settings = new int[numRotors - 1];
+            int order = -1;
+            for (long k = from; k < to; k += 1) {
+                int o = (int) (k / _settingsCount);
+                if (o != order) {
+                    _machine.restore(new MachineState(_orders.get(o),
+                                                      new int[numRotors],
+                                                      null));
+                    _fused.clear();
+                    order = o;
+                }
+                long digits = k % _settingsCount;
+                for (int x = settings.length - 1; x >= 0; x -= 1) {
+                    settings[x] = (int) (digits % _size);
+                    digits /= _size;
+                }
+                _machine.setRotors(settings);
+                position();
+                long rejected = 0;
+                for (int x = 0; x < _size; x += 1) {
+                    if ((rejected & (1L << x)) != 0) {
+                        continue;
+                    }
+                    if (close(_start, x)) {
+                        for (int c = 0; c < _size; c += 1) {
+                            _partner[c] = _closure[c] == 0 ? -1
+                                : Long.numberOfTrailingZeros(_closure[c]);
+                        }
+                        result.add(new Stop(_orders.get(o), settings,
+                                            _partner));
+                    }
+                    rejected |= _closure[_start];
+                }
+            }
+            return result;
+        }
+
+        /** Step my machine through the crib, recording in _fast and
+         *  _slow the setting of the rightmost rotor and the fused table
+         *  for the others at each position. */
+        private void position() {
+            for (int i = 0; i < _offset; i += 1) {
+                _machine.step();
+            }
+            Rotor[] rotors = _machine.selectRotors();
+            int last = rotors.length - 1;
+            for (int i = 0; i < _crib.length; i += 1) {
+                _machine.step();
+                long key = 0;
+                for (int x = 0; x < last; x += 1) {
+                    key = key * _size + rotors[x].setting();
+                }
+                int[] fused = _fused.get(key);
+                if (fused == null) {
+                    fused = fuse(rotors);
+                    _fused.put(key, fused);
+                    Iterator<int[]> eldest = _fused.values().iterator();
+                    while (_fused.size() > FUSED_TABLES) {
+                        eldest.next();
+                        eldest.remove();
+                    }
+                }
+                _fast[i] = rotors[last].setting();
+                _slow[i] = fused;
+            }
+        }
+
+        /** Return the conversion performed by ROTORS other than the
+         *  rightmost at their current settings, entering and leaving
+         *  through the rightmost. */
+        private int[] fuse(Rotor[] rotors) {
+            int last = rotors.length - 1;
+            int[] result = new int[_size];
+            for (int c = 0; c < _size; c += 1) {
+                int p = c;
+                for (int y = last - 1; y >= 0; y -= 1) {
+                    p = rotors[y].convertForward(p);
+                }
+                for (int y = 1; y < last; y += 1) {
+                    p = rotors[y].convertBackward(p);
+                }
+                result[c] = p;
+            }
+            return result;
+        }
+
+        /** Close the hypothesis that letter A is connected to X, leaving
+         *  the implied pairs in _closure.  Return false, leaving a
+         *  partial closure, as soon as a contradiction appears. */
+        private boolean close(int a, int x) {
+            Rotor fast = _machine.selectRotors()[_machine.numRotors() - 1];
+            for (int c = 0; c < _size; c += 1) {
+                _closure[c] = 0;
+            }
+            _top = 0;
+            if (!imply(a, x)) {
+                return false;
+            }
+            while (_top > 0) {
+                _top -= 1;
+                int b = _stack[_top] / _size, y = _stack[_top] % _size;
+                if (!imply(y, b)) {
+                    return false;
+                }
+                for (int e = _edgeStart[b]; e < _edgeStart[b + 1]; e += 1) {
+                    int i = _edgePos[e], s = _fast[i];
+                    int z = fast.convertBackward(
+                        _slow[i][fast.convertForward(y, s)], s);
+                    if (!imply(_edgeTo[e], z)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Record that letter C is connected to Z, scheduling its
+         *  implications if it is new.  Return false iff C then has two
+         *  partners. */
+        private boolean imply(int c, int z) {
+            long bit = 1L << z;
+            if ((_closure[c] & bit) != 0) {
+                return true;
+            } else if (_closure[c] != 0) {
+                _closure[c] |= bit;
+                return false;
+            }
+            _closure[c] = bit;
+            _stack[_top] = c * _size + z;
+            _top += 1;
+            return true;
+        }
+
+        /** This task's machine. */
+        private final Machine _machine;
+
+        /** Settings of the rightmost rotor along the crib. */
+        private final int[] _fast;
+
+        /** Fused tables for the other rotors along the crib. */
+        private final int[][] _slow;
+
+        /** Fused tables for the recently used configurations of the
+         *  slower rotors of the current rotor order, keyed by their
+         *  settings, least recently used first. */
+        private final LinkedHashMap<Long, int[]> _fused =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+        /** _closure[C] has bit Z set iff C is implied to be connected to
+         *  Z. */
+        private final long[] _closure;
+
+        /** Pairs C * _size + Z whose implications are pending. */
+        private final int[] _stack;
+
+        /** Number of pairs in _stack. */
+        private int _top;
+
+        /** Scratch array for the partners of a stop. */
+        private final int[] _partner;
+    }
+
+    /** The machine searched. */
+    private final Machine _enigma;
+
+    /** The alphabet of _enigma. */
+    private final Alphabet _alphabet;
+
+    /** The size of _alphabet. */
+    private final int _size;
+
+    /** The crib, as alphabet indices. */
+    private final int[] _crib;
+
+    /** Position of the crib in the ciphertext. */
+    private final int _offset;
+
+    /** The rotor orders tried. */
+    private final List<int[]> _orders;
+
+    /** Number of combinations of settings for each rotor order. */
+    private final long _settingsCount;
+
+    /** The menu: the edges from letter C are numbered _edgeStart[C] ..
+     *  _edgeStart[C + 1] - 1, and edge E leads to letter _edgeTo[E] at
+     *  crib position _edgePos[E]. */
+    private int[] _edgeStart, _edgeTo, _edgePos;
+
+    /** The menu letter whose partner is hypothesized. */
+    private int _start;
+
+}
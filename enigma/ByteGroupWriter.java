@@ -0,0 +1,95 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static enigma.EnigmaException.*;
+
+/** A GroupedOutput of bytes, encoding ASCII characters, formatted
+ *  directly into a ByteBuffer.  When the buffer fills, its contents are
+ *  written to an OutputStream and it is reused; subclasses may instead
+ *  move on to another buffer (for example, the next mapped region of a
+ *  file).
+ *  @author Yohan Yan
+ */
+class ByteGroupWriter extends GroupedOutput<byte[]> {
+
+    /** A writer sending its output to OUT through a buffer of SIZE
+     *  bytes. */
+    ByteGroupWriter(OutputStream out, int size) {
+        _out = out;
+        _buffer = ByteBuffer.allocate(Math.max(size, GROUP));
+    }
+
+    /** A writer formatting its output into BUFFER, which is replaced by
+     *  drain(BUFFER) when it fills. */
+    ByteGroupWriter(ByteBuffer buffer) {
+        _out = null;
+        _buffer = buffer;
+    }
+
+    @Override
+    void put(byte[] text, int off, int len) {
+        if (_buffer.remaining() < len) {
+            _buffer = drain(_buffer);
+        }
+        _buffer.put(text, off, len);
+    }
+
+    @Override
+    void putSpace() {
+        if (!_buffer.hasRemaining()) {
+            _buffer = drain(_buffer);
+        }
+        _buffer.put((byte) ' ');
+    }
+
+    @Override
+    void putNewline() {
+        if (!_buffer.hasRemaining()) {
+            _buffer = drain(_buffer);
+        }
+        _buffer.put((byte) '\n');
+    }
+
+    /** Pass on all formatted output. */
+    void flush() {
+        _buffer = drain(_buffer);
+        if (_out != null) {
+            try {
+                _out.flush();
+            } catch (IOException excp) {
+                throw error("could not write output: %s",
+                            excp.getMessage());
+            }
+        }
+    }
+
+    /** Pass on the contents of BUFFER, which holds all formatted output
+     *  not yet passed on, and return the buffer in which to continue,
+     *  which must have room for at least GROUP bytes.  This writes the
+     *  contents to the OutputStream and returns BUFFER, cleared. */
+    ByteBuffer drain(ByteBuffer buffer) {
+        long start = Metrics.now();
+        try {
+            _out.write(buffer.array(), buffer.arrayOffset(),
+                       buffer.position());
+            if (Metrics.ENABLED) {
+                Metrics.WRITE_TIME.recordSince(start);
+                Metrics.OUTPUT_WRITTEN.add(buffer.position());
+            }
+            buffer.clear();
+            return buffer;
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+    }
+
+    /** Destination of the output, or null if drain is overridden. */
+    private final OutputStream _out;
+
+    /** Receives formatted output. */
+    private ByteBuffer _buffer;
+
+}
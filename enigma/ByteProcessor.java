@@ -0,0 +1,138 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static enigma.EnigmaException.*;
+
+/** Applies an Enigma machine to settings and message lines given as
+ *  bytes, for alphabets whose characters are all ASCII (see ByteTable).
+ *  Lines are recognized (see LineScanner) and converted directly in
+ *  blocks of input bytes, which may be the mapped regions of a file, and
+ *  the results are formatted by a ByteGroupWriter, with no charset
+ *  decoding or encoding except of settings lines.
+ *  @author Yohan Yan
+ */
+class ByteProcessor extends LineScanner {
+
+    /** Size of the blocks in which streams are read, in bytes. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Maximum number of bytes converted at once. */
+    static final int CHUNK = 1 << 12;
+
+    /** A processor that converts messages with ENIGMA, writing the results
+     *  to OUTPUT, and passes settings lines to MAIN. */
+    ByteProcessor(Main main, Machine enigma, ByteGroupWriter output) {
+        _main = main;
+        _enigma = enigma;
+        _output = output;
+        _enigma.byteTable();
+        _converted = new byte[CHUNK];
+    }
+
+    /** Process all the bytes of IN and write out the results, including
+     *  those preceding any error. */
+    void process(InputStream in) {
+        ByteBuffer block = ByteBuffer.allocate(BUFFER_SIZE);
+        int n;
+        try {
+            while ((n = in.read(block.array())) > 0) {
+                block.limit(n);
+                scan(block);
+            }
+            finish();
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        } finally {
+            _output.flush();
+        }
+    }
+
+    /** Process the bytes of BLOCK from index 0 up to its limit,
+     *  continuing from the state left by the previous block.  The
+     *  position of BLOCK is not used or changed. */
+    void scan(ByteBuffer block) {
+        _block = block;
+        scan(block.limit());
+        _block = null;
+    }
+
+    @Override
+    int charAt(int i) {
+        return _block.get(i) & 0xff;
+    }
+
+    @Override
+    void convert(int from, int to) {
+        while (from < to) {
+            int len = Math.min(to - from, CHUNK);
+            convert(_block, from, len);
+            from += len;
+        }
+    }
+
+    @Override
+    void convertStar() {
+        convert(STAR, 0, 1);
+    }
+
+    @Override
+    void endOutputLine() {
+        _output.endLine();
+    }
+
+    @Override
+    void setUp(String settings) {
+        for (int i = 0; i < settings.length(); i += 1) {
+            if (settings.charAt(i) >= ASCII) {
+                settings = new String(settings.getBytes(
+                                          StandardCharsets.ISO_8859_1),
+                                      Charset.defaultCharset());
+                break;
+            }
+        }
+        _main.setUp(_enigma, settings);
+    }
+
+    /** Convert the LEN <= CHUNK bytes of BYTES starting at index OFF,
+     *  part of a message line, and append the result to the current
+     *  output line. */
+    private void convert(ByteBuffer bytes, int off, int len) {
+        long start = Metrics.now();
+        int k = _enigma.convert(bytes, off, len, _converted);
+        if (Metrics.ENABLED) {
+            start = Metrics.CONVERT_TIME.recordSince(start);
+        }
+        _output.write(_converted, 0, k);
+        if (Metrics.ENABLED) {
+            Metrics.FORMAT_TIME.recordSince(start);
+        }
+    }
+
+    /** A block holding "*". */
+    private static final ByteBuffer STAR =
+        ByteBuffer.wrap(new byte[] { '*' }).asReadOnlyBuffer();
+
+    /** Number of ASCII characters. */
+    private static final int ASCII = 128;
+
+    /** Receives settings lines. */
+    private final Main _main;
+
+    /** Machine converting the messages. */
+    private final Machine _enigma;
+
+    /** Destination of the converted messages. */
+    private final ByteGroupWriter _output;
+
+    /** The block being scanned. */
+    private ByteBuffer _block;
+
+    /** Receives converted bytes. */
+    private final byte[] _converted;
+
+}
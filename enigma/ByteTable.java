@@ -0,0 +1,90 @@
+package enigma;
+
+import java.nio.charset.Charset;
+
+import static enigma.EnigmaException.*;
+
+/** Translates between bytes and the indices of an alphabet all of whose
+ *  characters are ASCII, so that text in an ASCII-compatible encoding can
+ *  be converted without decoding it into chars.
+ *  @author Yohan Yan
+ */
+class ByteTable {
+
+    /** Index of whitespace bytes. */
+    static final int SPACE = -1;
+
+    /** Index of bytes that are not in the alphabet. */
+    static final int ABSENT = -2;
+
+    /** A table for ALPHABET, which must consist of ASCII characters. */
+    ByteTable(Alphabet alphabet) {
+        _bytes = new byte[alphabet.size()];
+        for (int i = 0; i < alphabet.size(); i += 1) {
+            char c = alphabet.toChar(i);
+            if (c >= ASCII) {
+                throw error("byte-oriented conversion needs an ASCII "
+                            + "alphabet");
+            }
+            _bytes[i] = (byte) c;
+        }
+        _index = new int[1 << Byte.SIZE];
+        for (int b = 0; b < _index.length; b += 1) {
+            char c = (char) b;
+            if (!alphabet.contains(c)) {
+                c = Character.toUpperCase(c);
+            }
+            if (Machine.isSpace((char) b)) {
+                _index[b] = SPACE;
+            } else if (b < ASCII && alphabet.contains(c)) {
+                _index[b] = alphabet.toInt(c);
+            } else {
+                _index[b] = ABSENT;
+            }
+        }
+    }
+
+    /** Return true iff ALPHABET consists of ASCII characters and the
+     *  default charset encodes ASCII characters as single bytes with the
+     *  same values, so that bytes of input may be converted directly. */
+    static boolean suits(Alphabet alphabet) {
+        for (int i = 0; i < alphabet.size(); i += 1) {
+            if (alphabet.toChar(i) >= ASCII) {
+                return false;
+            }
+        }
+        char[] ascii = new char[ASCII];
+        for (int c = 0; c < ASCII; c += 1) {
+            ascii[c] = (char) c;
+        }
+        byte[] encoded = new String(ascii).getBytes(Charset.defaultCharset());
+        for (int c = 0; c < ASCII; c += 1) {
+            if (encoded.length != ASCII || encoded[c] != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the alphabet index of the character encoded by B (or of its
+     *  upper-case version, if it is not in the alphabet), or SPACE or
+     *  ABSENT. */
+    int toInt(byte b) {
+        return _index[b & 0xff];
+    }
+
+    /** Return the byte encoding alphabet character INDEX. */
+    byte toByte(int index) {
+        return _bytes[index];
+    }
+
+    /** Number of ASCII characters. */
+    private static final int ASCII = 128;
+
+    /** _index[B] is the result of toInt(B). */
+    private final int[] _index;
+
+    /** _bytes[I] is the result of toByte(I). */
+    private final byte[] _bytes;
+
+}
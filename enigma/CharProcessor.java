@@ -0,0 +1,110 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.EnigmaException.*;
+
+/** Applies an Enigma machine to settings and message lines read as
+ *  characters, for any alphabet.  The input is read in blocks and its
+ *  lines recognized (see LineScanner) a character at a time; message
+ *  text is converted as it is read, and the results are formatted by a
+ *  GroupWriter.
+ *  @author Yohan Yan
+ */
+class CharProcessor extends LineScanner {
+
+    /** A processor that converts messages with ENIGMA, writing the results
+     *  to OUTPUT, and passes settings lines to MAIN.  Input is read in
+     *  blocks of SIZE characters, and the conversion of each block is
+     *  divided among the threads of POOL, unless it is null. */
+    CharProcessor(Main main, Machine enigma, GroupWriter output,
+                  ForkJoinPool pool, int size) {
+        _main = main;
+        _enigma = enigma;
+        _output = output;
+        _pool = pool;
+        _block = new char[size];
+        _converted = new char[size];
+    }
+
+    /** Process all the characters of IN, sending the results to my
+     *  output. */
+    void process(Reader in) {
+        int n;
+        try {
+            while ((n = in.read(_block, 0, _block.length)) > 0) {
+                scan(n);
+            }
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        }
+        finish();
+    }
+
+    @Override
+    int charAt(int i) {
+        return _block[i];
+    }
+
+    @Override
+    void convert(int from, int to) {
+        convert(_block, from, to - from);
+    }
+
+    @Override
+    void convertStar() {
+        _converted[0] = '*';
+        convert(_converted, 0, 1);
+    }
+
+    @Override
+    void endOutputLine() {
+        _output.endLine();
+    }
+
+    @Override
+    void setUp(String settings) {
+        _main.setUp(_enigma, settings);
+    }
+
+    /** Convert CHARS[OFF .. OFF+LEN-1], part of a message line, and
+     *  append the result to the current output line. */
+    private void convert(char[] chars, int off, int len) {
+        long start = Metrics.now();
+        int k;
+        if (_pool == null) {
+            k = _enigma.convert(chars, off, len, _converted);
+        } else {
+            k = _enigma.convert(chars, off, len, _converted, _pool);
+        }
+        if (Metrics.ENABLED) {
+            start = Metrics.CONVERT_TIME.recordSince(start);
+        }
+        _output.write(_converted, 0, k);
+        if (Metrics.ENABLED) {
+            Metrics.FORMAT_TIME.recordSince(start);
+        }
+    }
+
+    /** Receives settings lines. */
+    private final Main _main;
+
+    /** Machine converting the messages. */
+    private final Machine _enigma;
+
+    /** Destination of the converted messages. */
+    private final GroupWriter _output;
+
+    /** Threads among which the conversion of each block is divided, or
+     *  null. */
+    private final ForkJoinPool _pool;
+
+    /** The block being scanned. */
+    private final char[] _block;
+
+    /** Receives converted characters. */
+    private final char[] _converted;
+
+}
@@ -0,0 +1,92 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static enigma.EnigmaException.*;
+
+/** An Alphabet consisting of an arbitrary set of distinct Unicode
+ *  characters, in a given order.  Characters below DENSE_LIMIT are looked
+ *  up in a table indexed by character; any others in a hash table.
+ *  @author Yohan Yan
+ */
+class CharacterSet extends Alphabet {
+
+    /** Characters below this value are indexed by a table. */
+    static final int DENSE_LIMIT = 1 << 12;
+
+    /** Marks characters absent from the alphabet in _index. */
+    private static final int ABSENT = -1;
+
+    /** An alphabet consisting of the characters of CHARS, in order. */
+    CharacterSet(String chars) {
+        if (chars.isEmpty()) {
+            throw error("empty alphabet");
+        }
+        _chars = chars.toCharArray();
+        int limit = 0;
+        for (char c : _chars) {
+            if (c < DENSE_LIMIT) {
+                limit = Math.max(limit, c + 1);
+            }
+        }
+        _index = new int[limit];
+        Arrays.fill(_index, ABSENT);
+        for (int i = 0; i < _chars.length; i += 1) {
+            char c = _chars[i];
+            if (contains(c)) {
+                throw error("character %c appears twice in alphabet", c);
+            } else if (c < limit) {
+                _index[c] = i;
+            } else {
+                _wide.put(c, i);
+            }
+        }
+    }
+
+    @Override
+    int size() {
+        return _chars.length;
+    }
+
+    @Override
+    boolean contains(char ch) {
+        if (ch < _index.length) {
+            return _index[ch] != ABSENT;
+        }
+        return _wide.containsKey(ch);
+    }
+
+    @Override
+    char toChar(int index) {
+        if (index < 0 || index >= _chars.length) {
+            throw error("character index out of range");
+        }
+        return _chars[index];
+    }
+
+    @Override
+    int toInt(char ch) {
+        int result;
+        if (ch < _index.length) {
+            result = _index[ch];
+        } else {
+            Integer wide = _wide.get(ch);
+            result = wide == null ? ABSENT : wide;
+        }
+        if (result == ABSENT) {
+            throw error("character out of range");
+        }
+        return result;
+    }
+
+    /** The characters of this Alphabet, in order. */
+    private final char[] _chars;
+
+    /** _index[C] is the index of character C, or ABSENT. */
+    private final int[] _index;
+
+    /** Indices of characters beyond the range of _index. */
+    private final HashMap<Character, Integer> _wide = new HashMap<>();
+
+}
@@ -0,0 +1,308 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** An immutable, validated machine configuration: an alphabet, the
+ *  numbers of rotor slots and pawls, and the available rotors.
+ *
+ *  A configuration file is parsed in a single pass over its text.  The
+ *  first line gives the alphabet: either its characters in order, or a
+ *  range of the form C1-C2.  Then come the numbers of slots and pawls,
+ *  and then one description per rotor: a name, a type, and the rest of
+ *  the line as the rotor's cycles, continued on any following lines whose
+ *  first non-blank character is '('.  The rotors are built as the file is
+ *  parsed, so every error is reported at once; each machine made from
+ *  the configuration gets copies of them that share their wiring.
+ *
+ *  Alphabets may have at most MAX_ALPHABET characters.  Each rotor keeps
+ *  two tables of N x N ints for an alphabet of N characters, as does
+ *  each machine and each of its copies, so larger alphabets would need
+ *  megabytes per table.
+ *
+ *  Configurations loaded from files are cached by path and are reused as
+ *  long as the file's modification time and size are unchanged, so a
+ *  program that reads the same configuration repeatedly parses it once.
+ *  @author Yohan Yan
+ */
+final class Configuration {
+
+    /** Maximum number of configurations kept by load. */
+    static final int CACHE_SIZE = 16;
+
+    /** Maximum number of characters in an alphabet. */
+    static final int MAX_ALPHABET = 256;
+
+    /** Return the configuration in the file named NAME, parsing it only
+     *  if it is not cached or has changed since it was cached. */
+    static Configuration load(String name) {
+        Path path = Paths.get(name).toAbsolutePath();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path,
+                                              BasicFileAttributes.class);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+        long modified = attributes.lastModifiedTime().toMillis();
+        long length = attributes.size();
+        String key = path.toString();
+        synchronized (CACHE) {
+            Configuration cached = CACHE.get(key);
+            if (cached != null && cached._modified == modified
+                && cached._length == length) {
+                if (Metrics.ENABLED) {
+                    Metrics.CONFIG_CACHE_HITS.increment();
+                }
+                return cached;
+            }
+        }
+        String text;
+        try {
+            text = new String(Files.readAllBytes(path));
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+        Configuration result = parse(text);
+        result._modified = modified;
+        result._length = length;
+        synchronized (CACHE) {
+            CACHE.put(key, result);
+            Iterator<Configuration> eldest = CACHE.values().iterator();
+            while (CACHE.size() > CACHE_SIZE) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return result;
+    }
+
+    /** Return the configuration described by TEXT, in the format of a
+     *  configuration file. */
+    static Configuration parse(String text) {
+        if (Metrics.ENABLED) {
+            Metrics.CONFIG_PARSES.increment();
+        }
+        return new Parser(text).configuration();
+    }
+
+    /** A configuration with alphabet ALPHABET, NUMROTORS slots, PAWLS
+     *  pawls, and the rotors described by ROTORS, which is not copied. */
+    private Configuration(Alphabet alphabet, int numRotors, int pawls,
+                          RotorDescriptor[] rotors) {
+        if (numRotors < 2 || pawls < 0 || pawls >= numRotors) {
+            throw error("bad numbers of rotors (%d) and pawls (%d)",
+                        numRotors, pawls);
+        } else if (alphabet.size() > MAX_ALPHABET) {
+            throw error("alphabet has %d characters; at most %d are allowed",
+                        alphabet.size(), MAX_ALPHABET);
+        }
+        _alphabet = alphabet;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _descriptors = Collections.unmodifiableList(Arrays.asList(rotors));
+        _rotors = new Rotor[rotors.length];
+        HashSet<String> names = new HashSet<>();
+        for (int i = 0; i < rotors.length; i += 1) {
+            if (!names.add(rotors[i].name())) {
+                throw error("rotor %s described twice", rotors[i].name());
+            }
+            _rotors[i] = rotors[i].build(alphabet);
+        }
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return my number of rotor slots. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return my number of pawls. */
+    int numPawls() {
+        return _pawls;
+    }
+
+    /** Return descriptions of my rotors, in order. */
+    List<RotorDescriptor> rotors() {
+        return _descriptors;
+    }
+
+    /** Return a new machine with my configuration, whose rotors are
+     *  copies of mine. */
+    Machine machine() {
+        ArrayList<Rotor> rotors = new ArrayList<>(_rotors.length);
+        for (Rotor r : _rotors) {
+            rotors.add(r.copy());
+        }
+        return new Machine(_alphabet, _numRotors, _pawls, rotors);
+    }
+
+    /** Return the alphabet described by LINE, the first line of a
+     *  configuration file: either the characters of the alphabet in order,
+     *  or a range of the form C1-C2. */
+    static Alphabet alphabet(String line) {
+        if (line.isEmpty()) {
+            throw error("empty alphabet");
+        } else if (line.length() == 3 && line.charAt(1) == '-') {
+            return new CharacterRange(line.charAt(0), line.charAt(2));
+        }
+        for (int i = 1; i < line.length(); i += 1) {
+            if (line.charAt(i) != line.charAt(i - 1) + 1) {
+                return new CharacterSet(line);
+            }
+        }
+        return new CharacterRange(line.charAt(0),
+                                  line.charAt(line.length() - 1));
+    }
+
+    /** A single-pass scanner over the text of a configuration file. */
+    private static class Parser {
+
+        /** A parser for TEXT. */
+        Parser(String text) {
+            _text = text;
+        }
+
+        /** Return the configuration described by my text. */
+        Configuration configuration() {
+            int end = lineEnd(0);
+            if (end == 0 && _text.isEmpty()) {
+                throw error("configuration file truncated");
+            }
+            Alphabet alphabet = alphabet(_text.substring(0, end).trim());
+            _pos = end;
+            int numRotors = number();
+            int pawls = number();
+            ArrayList<RotorDescriptor> rotors = new ArrayList<>();
+            while (skipWhitespace()) {
+                String name = token().toUpperCase();
+                if (!skipWhitespace()) {
+                    throw error("bad rotor description for %s", name);
+                }
+                String type = token();
+                rotors.add(new RotorDescriptor(name, type, cycles()));
+            }
+            return new Configuration(alphabet, numRotors, pawls,
+                                     rotors.toArray(new RotorDescriptor[0]));
+        }
+
+        /** Return the unsigned decimal number starting at the next
+         *  non-whitespace character. */
+        private int number() {
+            if (!skipWhitespace()) {
+                throw error("configuration file truncated");
+            }
+            int start = _pos;
+            long value = 0;
+            while (_pos < _text.length() && _text.charAt(_pos) >= '0'
+                   && _text.charAt(_pos) <= '9') {
+                value = Math.min(10 * value + (_text.charAt(_pos) - '0'),
+                                 Integer.MAX_VALUE);
+                _pos += 1;
+            }
+            if (_pos == start || !atWhitespace()) {
+                throw error("bad number in configuration: %s", token());
+            }
+            return (int) value;
+        }
+
+        /** Return the token starting at the current position, which must
+         *  not be whitespace, advancing past it. */
+        private String token() {
+            int start = _pos;
+            while (_pos < _text.length() && !atWhitespace()) {
+                _pos += 1;
+            }
+            return _text.substring(start, _pos);
+        }
+
+        /** Return the rest of the current line together with following
+         *  lines whose first non-blank character is '(', advancing past
+         *  them. */
+        private String cycles() {
+            int start = _pos;
+            int end = lineEnd(_pos);
+            while (true) {
+                int next = end;
+                while (next < _text.length()
+                       && Character.isWhitespace(_text.charAt(next))) {
+                    next += 1;
+                }
+                if (next == _text.length() || _text.charAt(next) != '(') {
+                    break;
+                }
+                end = lineEnd(next);
+            }
+            _pos = end;
+            return _text.substring(start, end).trim();
+        }
+
+        /** Advance past whitespace, returning true iff any text remains. */
+        private boolean skipWhitespace() {
+            while (_pos < _text.length() && atWhitespace()) {
+                _pos += 1;
+            }
+            return _pos < _text.length();
+        }
+
+        /** Return true iff the current position is at the end of the text
+         *  or at whitespace. */
+        private boolean atWhitespace() {
+            return _pos == _text.length()
+                || Character.isWhitespace(_text.charAt(_pos));
+        }
+
+        /** Return the position of the end of the line containing position
+         *  START: the position of its terminating newline, or the end of
+         *  the text. */
+        private int lineEnd(int start) {
+            int end = _text.indexOf('\n', start);
+            return end < 0 ? _text.length() : end;
+        }
+
+        /** The text parsed. */
+        private final String _text;
+
+        /** The current position in _text. */
+        private int _pos;
+    }
+
+    /** Configurations loaded from files, keyed by absolute path, least
+     *  recently used first. */
+    private static final Map<String, Configuration> CACHE =
+        new LinkedHashMap<>(CACHE_SIZE, 0.75f, true);
+
+    /** My alphabet. */
+    private final Alphabet _alphabet;
+
+    /** My numbers of rotor slots and pawls. */
+    private final int _numRotors, _pawls;
+
+    /** Descriptions of my rotors. */
+    private final List<RotorDescriptor> _descriptors;
+
+    /** My rotors, copied into each machine. */
+    private final Rotor[] _rotors;
+
+    /** Modification time (in milliseconds) and size of the file I was
+     *  loaded from, when cached. */
+    private long _modified, _length;
+
+}
@@ -0,0 +1,129 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/** The suite of all JUnit tests for the Configuration class.
+ *  @author Yohan Yan
+ */
+public class ConfigurationTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A small configuration whose reflector is continued on a second
+     *  line. */
+    static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n"
+        + " 4 2\n"
+        + " I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME     (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "           (RX) (SZ) (TV)\n";
+
+    /** Write TEXT to FILE. */
+    private static void write(File file, String text) throws IOException {
+        try (Writer out = new FileWriter(file)) {
+            out.write(text);
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testParse() {
+        Configuration config = Configuration.parse(CONFIG);
+        assertEquals(26, config.alphabet().size());
+        assertEquals(4, config.numRotors());
+        assertEquals(2, config.numPawls());
+        assertEquals(4, config.rotors().size());
+        RotorDescriptor b = config.rotors().get(3);
+        assertEquals("B", b.name());
+        assertTrue(b.reflecting());
+        assertTrue(b.cycles().endsWith("(TV)"));
+        assertEquals("Q", config.rotors().get(0).notches());
+        Machine mach = config.machine();
+        mach.insertRotors(new String[] { "B", "BETA", "I", "II" });
+        mach.setRotors("AAA");
+        assertEquals(config.machine().availableRotors().length, 4);
+        assertNotSame(mach.availableRotors()[0],
+                      config.machine().availableRotors()[0]);
+    }
+
+    @Test
+    public void testParseCarriageReturns() {
+        Configuration config =
+            Configuration.parse(CONFIG.replace("\n", "\r\n"));
+        assertEquals(26, config.alphabet().size());
+        assertEquals("(AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)",
+                     config.rotors().get(3).cycles().substring(0, 49));
+        assertTrue(config.rotors().get(3).cycles().endsWith("(TV)"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBadType() {
+        Configuration.parse(CONFIG.replace("Beta N", "Beta X"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testDuplicateRotor() {
+        Configuration.parse(CONFIG.replace("II ME", "I ME"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBadNumber() {
+        Configuration.parse(CONFIG.replace(" 4 2", " 4 2x"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testTruncated() {
+        Configuration.parse("ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 4\n");
+    }
+
+    @Test
+    public void testLoadCache() throws IOException {
+        File file = File.createTempFile("enigma", ".conf");
+        file.deleteOnExit();
+        write(file, CONFIG);
+        Configuration first = Configuration.load(file.getPath());
+        assertSame(first, Configuration.load(file.getPath()));
+        write(file, CONFIG.replace(" 4 2", " 3 2")
+              .replace(" Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n", ""));
+        Configuration second = Configuration.load(file.getPath());
+        assertNotSame(first, second);
+        assertEquals(3, second.numRotors());
+        assertEquals(3, second.rotors().size());
+    }
+
+    @Test
+    public void testAlphabetSize() {
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < Configuration.MAX_ALPHABET; i += 1) {
+            chars.append((char) (0x100 + 2 * i));
+        }
+        String rotors = " 2 1\n F N (" + chars.charAt(0) + chars.charAt(1)
+            + ")\n R R (" + chars.charAt(2) + chars.charAt(3) + ")\n";
+        assertEquals(Configuration.MAX_ALPHABET,
+                     Configuration.parse(chars + "\n" + rotors)
+                     .alphabet().size());
+        chars.append('A');
+        try {
+            Configuration.parse(chars + "\n" + rotors);
+            fail("alphabet of " + chars.length() + " characters accepted");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().startsWith("alphabet has 257"));
+        }
+    }
+
+}
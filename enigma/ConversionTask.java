@@ -0,0 +1,49 @@
+package enigma;
+
+import java.util.concurrent.RecursiveAction;
+
+/** A fork/join task that converts part of a message in place.  The
+ *  characters of the message (with whitespace already removed) are
+ *  divided into chunks, each of which is converted by a copy of the
+ *  machine advanced directly to the state it would have at the start of
+ *  that chunk, so that the chunks may be converted concurrently.
+ *  @author Yohan Yan
+ */
+class ConversionTask extends RecursiveAction {
+
+    /** Largest number of characters converted by a single task. */
+    static final int CHUNK = 1 << 14;
+
+    /** A task converting CHARS[FROM .. TO-1] in place, where START is a
+     *  machine in the state it has before converting CHARS[0].  START
+     *  itself is not changed. */
+    ConversionTask(Machine start, char[] chars, int from, int to) {
+        _start = start;
+        _chars = chars;
+        _from = from;
+        _to = to;
+    }
+
+    @Override
+    protected void compute() {
+        if (_to - _from <= CHUNK) {
+            Machine enigma = _start.copy();
+            enigma.advanceBy(_from);
+            enigma.convertInPlace(_chars, _from, _to);
+        } else {
+            int mid = _from + (_to - _from) / 2;
+            invokeAll(new ConversionTask(_start, _chars, _from, mid),
+                      new ConversionTask(_start, _chars, mid, _to));
+        }
+    }
+
+    /** Machine state at the start of the message. */
+    private final Machine _start;
+
+    /** The message being converted. */
+    private final char[] _chars;
+
+    /** Range of _chars converted by this task. */
+    private final int _from, _to;
+
+}
@@ -12,4 +12,14 @@ class FixedRotor extends Rotor {
     FixedRotor(String name, Permutation perm) {
         super(name, perm);
     }
+
+    /** A copy of ROTOR, sharing its wiring. */
+    FixedRotor(FixedRotor rotor) {
+        super(rotor);
+    }
+
+    @Override
+    Rotor copy() {
+        return new FixedRotor(this);
+    }
 }
@@ -0,0 +1,118 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import static enigma.EnigmaException.*;
+
+/** A GroupedOutput of characters sent to a Writer.  Output is formatted
+ *  directly into a buffer that is handed to the Writer in large blocks.
+ *  @author Yohan Yan
+ */
+class GroupWriter extends GroupedOutput<char[]> {
+
+    /** Size of the output buffer, in characters. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** A GroupWriter sending its output to OUT. */
+    GroupWriter(Writer out) {
+        this(out, BUFFER_SIZE);
+    }
+
+    /** A GroupWriter sending its output to OUT through a buffer of SIZE
+     *  characters. */
+    GroupWriter(Writer out, int size) {
+        _out = out;
+        _buffer = new char[Math.max(size, GROUP)];
+    }
+
+    /** Append the characters of MSG to the current line. */
+    void write(String msg) {
+        write(msg.toCharArray(), 0, msg.length());
+    }
+
+    /** Append TEXT, which consists of complete lines that have already
+     *  been formatted, to the output. */
+    void append(String text) {
+        drain();
+        try {
+            _out.write(text);
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+    }
+
+    @Override
+    void put(char[] text, int off, int len) {
+        if (_size + len > _buffer.length) {
+            drain();
+        }
+        for (int i = 0; i < len; i += 1) {
+            _buffer[_size + i] = text[off + i];
+        }
+        _size += len;
+    }
+
+    @Override
+    void putSpace() {
+        if (_size == _buffer.length) {
+            drain();
+        }
+        _buffer[_size] = ' ';
+        _size += 1;
+    }
+
+    @Override
+    void putNewline() {
+        if (_size == _buffer.length) {
+            drain();
+        }
+        _buffer[_size] = '\n';
+        _size += 1;
+    }
+
+    /** Write out all buffered output. */
+    void flush() {
+        drain();
+        try {
+            _out.flush();
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+    }
+
+    /** Write out all buffered output and close the underlying Writer. */
+    void close() {
+        flush();
+        try {
+            _out.close();
+        } catch (IOException excp) {
+            throw error("could not close output: %s", excp.getMessage());
+        }
+    }
+
+    /** Pass the contents of my buffer to the underlying Writer. */
+    private void drain() {
+        long start = Metrics.now();
+        try {
+            _out.write(_buffer, 0, _size);
+            if (Metrics.ENABLED) {
+                Metrics.WRITE_TIME.recordSince(start);
+                Metrics.OUTPUT_WRITTEN.add(_size);
+            }
+            _size = 0;
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+    }
+
+    /** Destination of my output. */
+    private final Writer _out;
+
+    /** Formatted output not yet passed to _out. */
+    private final char[] _buffer;
+
+    /** Number of characters in _buffer. */
+    private int _size;
+
+}
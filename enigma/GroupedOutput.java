@@ -0,0 +1,49 @@
+package enigma;
+
+/** A sink for converted messages that prints each line in groups of GROUP
+ *  characters (except that the last group may have fewer), separated by
+ *  single blanks.  The grouping is done here; subclasses hold the
+ *  formatted text, as chars or as bytes, and pass it on.  T is the type
+ *  of array (char[] or byte[]) from which text is taken.
+ *  @author Yohan Yan
+ */
+abstract class GroupedOutput<T> {
+
+    /** Number of characters in a group. */
+    static final int GROUP = 5;
+
+    /** Append TEXT[OFF .. OFF+LEN-1] to the current line. */
+    void write(T text, int off, int len) {
+        int end = off + len;
+        while (off < end) {
+            if (_column == GROUP) {
+                putSpace();
+                _column = 0;
+            }
+            int n = Math.min(GROUP - _column, end - off);
+            put(text, off, n);
+            _column += n;
+            off += n;
+        }
+    }
+
+    /** Terminate the current line. */
+    void endLine() {
+        putNewline();
+        _column = 0;
+    }
+
+    /** Add TEXT[OFF .. OFF+LEN-1], where LEN <= GROUP, to the formatted
+     *  text. */
+    abstract void put(T text, int off, int len);
+
+    /** Add a blank separating groups to the formatted text. */
+    abstract void putSpace();
+
+    /** Add a line terminator to the formatted text. */
+    abstract void putNewline();
+
+    /** Number of characters in the current group of the current line. */
+    private int _column;
+
+}
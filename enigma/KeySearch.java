@@ -0,0 +1,292 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static enigma.EnigmaException.*;
+
+/** Searches for the rotor order and start settings with which a machine
+ *  decrypts a ciphertext into the most language-like text, as measured by
+ *  the index of coincidence of the decryption.  Every reflector and
+ *  arrangement of the available rotors that the machine accepts (a
+ *  reflector, then fixed rotors, then moving rotors in the rightmost
+ *  numPawls() slots) is tried at every combination of settings, with a
+ *  given plugboard.  The work is divided among the threads of a fork/join
+ *  pool, each using its own copy of the machine, set up directly from
+ *  MachineState objects rather than by name.
+ *  @author Yohan Yan
+ */
+class KeySearch {
+
+    /** Number of candidate keys tried by a single task. */
+    static final int LEAF = 1 << 12;
+
+    /** A search using copies of ENIGMA, with plugboard PLUGBOARD (null
+     *  for none). */
+    KeySearch(Machine enigma, Permutation plugboard) {
+        _enigma = enigma;
+        _plugboard = plugboard;
+        _alphabet = enigma.alphabet();
+        _orders = rotorOrders(enigma);
+        long settings = 1;
+        long limit = Long.MAX_VALUE / _orders.size() / _alphabet.size();
+        for (int x = 1; x < enigma.numRotors(); x += 1) {
+            if (settings > limit) {
+                throw error("too many keys to search");
+            }
+            settings *= _alphabet.size();
+        }
+        _settingsCount = settings;
+    }
+
+    /** Return the number of rotor orders searched. */
+    int numOrders() {
+        return _orders.size();
+    }
+
+    /** Return the number of keys (rotor orders and settings) searched. */
+    long numCandidates() {
+        return _orders.size() * _settingsCount;
+    }
+
+    /** Return the BEST highest-scoring keys for CIPHERTEXT, best first,
+     *  using the threads of POOL, where BEST > 0.  Whitespace in
+     *  CIPHERTEXT is ignored, and lower-case letters not in the alphabet
+     *  are upper-cased. */
+    List<Candidate> search(String ciphertext, int best, ForkJoinPool pool) {
+        if (best <= 0) {
+            throw error("need at least one key");
+        }
+        int[] text = _alphabet.indices(ciphertext);
+        if (text.length < 2) {
+            throw error("ciphertext too short to search");
+        }
+        return pool.invoke(new SearchTask(text, best, 0, numCandidates()));
+    }
+
+    /** Return the index of coincidence of a text of N characters in which
+     *  character I occurs COUNTS[I] times: the probability that two of its
+     *  characters chosen at random are the same. */
+    static double indexOfCoincidence(int[] counts, int n) {
+        long pairs = 0;
+        for (int count : counts) {
+            pairs += (long) count * (count - 1);
+        }
+        return (double) pairs / ((long) n * (n - 1));
+    }
+
+    /** A key found by the search. */
+    final class Candidate {
+
+        /** The key numbered INDEX (see SearchTask), with rotor numbers
+         *  ROTORIDS and settings SETTINGS for the rotors after the
+         *  reflector, whose decryption has score SCORE.  The arrays are
+         *  copied. */
+        private Candidate(long index, int[] rotorIds, int[] settings,
+                          double score) {
+            _index = index;
+            _rotorIds = rotorIds.clone();
+            _settings = new int[rotorIds.length];
+            System.arraycopy(settings, 0, _settings, 1, settings.length);
+            _score = score;
+        }
+
+        /** Return the names of my rotors, reflector first. */
+        String[] rotors() {
+            String[] names = new String[_rotorIds.length];
+            for (int x = 0; x < names.length; x += 1) {
+                names[x] = _enigma.availableRotors()[_rotorIds[x]].name();
+            }
+            return names;
+        }
+
+        /** Return my rotor settings, as for Machine.setRotors. */
+        String settings() {
+            StringBuilder result = new StringBuilder();
+            for (int x = 1; x < _settings.length; x += 1) {
+                result.append(_alphabet.toChar(_settings[x]));
+            }
+            return result.toString();
+        }
+
+        /** Return the machine state for my key, which may be restored to
+         *  the searched machine or its copies. */
+        MachineState state() {
+            return new MachineState(_rotorIds.clone(), _settings.clone(),
+                                    _plugboard);
+        }
+
+        /** Return the score of my decryption. */
+        double score() {
+            return _score;
+        }
+
+        @Override
+        public String toString() {
+            return String.join(" ", rotors()) + " " + settings()
+                + String.format(" %.5f", _score);
+        }
+
+        /** Position of this key in the order searched. */
+        private final long _index;
+
+        /** Numbers of my rotors. */
+        private final int[] _rotorIds;
+
+        /** Settings of my rotors, reflector first. */
+        private final int[] _settings;
+
+        /** Score of my decryption. */
+        private final double _score;
+    }
+
+    /** A fork/join task searching keys numbered FROM .. TO-1: key K has
+     *  rotor order _orders.get(K / _settingsCount) and the settings whose
+     *  digits (last slot least significant) spell K % _settingsCount. */
+    private class SearchTask extends RecursiveTask<List<Candidate>> {
+
+        /** A task finding the BEST keys numbered FROM .. TO-1 for the
+         *  ciphertext TEXT, given as alphabet indices. */
+        SearchTask(int[] text, int best, long from, long to) {
+            _text = text;
+            _best = best;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected List<Candidate> compute() {
+            if (_to - _from <= LEAF) {
+                return searchRange(_text, _best, _from, _to);
+            }
+            long mid = _from + (_to - _from) / 2;
+            SearchTask left = new SearchTask(_text, _best, _from, mid);
+            left.fork();
+            List<Candidate> result =
+                new SearchTask(_text, _best, mid, _to).compute();
+            result.addAll(left.join());
+            result.sort(BEST_FIRST);
+            int n = Math.min(_best, result.size());
+            return new ArrayList<>(result.subList(0, n));
+        }
+
+        /** The ciphertext. */
+        private final int[] _text;
+
+        /** Number of keys to keep. */
+        private final int _best;
+
+        /** Range of keys searched. */
+        private final long _from, _to;
+    }
+
+    /** Return the BEST highest-scoring keys numbered FROM .. TO-1 (see
+     *  SearchTask) for TEXT, best first, using a copy of the machine. */
+    private List<Candidate> searchRange(int[] text, int best, long from,
+                                        long to) {
+        Machine enigma = _enigma.copy();
+        int numRotors = enigma.numRotors();
+        int size = _alphabet.size();
+        int[] settings = new int[numRotors - 1];
+        int[] counts = new int[size];
+        PriorityQueue<Candidate> top = new PriorityQueue<>(WORST_FIRST);
+        int order = -1;
+        for (long k = from; k < to; k += 1) {
+            int o = (int) (k / _settingsCount);
+            if (o != order) {
+                enigma.restore(new MachineState(_orders.get(o),
+                                                new int[numRotors],
+                                                _plugboard));
+                order = o;
+            }
+            long digits = k % _settingsCount;
+            for (int x = settings.length - 1; x >= 0; x -= 1) {
+                settings[x] = (int) (digits % size);
+                digits /= size;
+            }
+            enigma.setRotors(settings);
+            for (int c = 0; c < size; c += 1) {
+                counts[c] = 0;
+            }
+            for (int c : text) {
+                counts[enigma.convert(c)] += 1;
+            }
+            double score = indexOfCoincidence(counts, text.length);
+            if (top.size() < best || score > top.peek().score()) {
+                top.add(new Candidate(k, _orders.get(o), settings, score));
+                if (top.size() > best) {
+                    top.poll();
+                }
+            }
+        }
+        List<Candidate> result = new ArrayList<>(top);
+        result.sort(BEST_FIRST);
+        return result;
+    }
+
+    /** Return the rotor orders accepted by ENIGMA, as arrays of rotor
+     *  numbers: a reflector, followed by distinct fixed rotors, followed
+     *  by distinct moving rotors in the rightmost numPawls() slots. */
+    static List<int[]> rotorOrders(Machine enigma) {
+        List<int[]> result = new ArrayList<>();
+        addOrders(enigma, new int[enigma.numRotors()], 0, result);
+        if (result.isEmpty()) {
+            throw error("no rotor order fits the machine");
+        }
+        return result;
+    }
+
+    /** Add to RESULT each rotor order accepted by ENIGMA that begins with
+     *  ORDER[0 .. X-1]. */
+    private static void addOrders(Machine enigma, int[] order, int x,
+                                  List<int[]> result) {
+        if (x == order.length) {
+            result.add(order.clone());
+            return;
+        }
+        Rotor[] rotors = enigma.availableRotors();
+        boolean moving = x >= order.length - enigma.numPawls();
+        for (int id = 0; id < rotors.length; id += 1) {
+            Rotor r = rotors[id];
+            boolean fits = x == 0 ? r.reflecting()
+                : !r.reflecting() && r.rotates() == moving;
+            for (int y = 0; fits && y < x; y += 1) {
+                fits = order[y] != id;
+            }
+            if (fits) {
+                order[x] = id;
+                addOrders(enigma, order, x + 1, result);
+            }
+        }
+    }
+
+    /** Orders candidates from highest to lowest score, breaking ties by
+     *  their position in the search. */
+    private static final Comparator<KeySearch.Candidate> BEST_FIRST =
+        Comparator.comparingDouble((KeySearch.Candidate c) -> -c._score)
+        .thenComparingLong(c -> c._index);
+
+    /** The reverse of BEST_FIRST. */
+    private static final Comparator<KeySearch.Candidate> WORST_FIRST =
+        BEST_FIRST.reversed();
+
+    /** The machine searched. */
+    private final Machine _enigma;
+
+    /** The plugboard used during the search, or null. */
+    private final Permutation _plugboard;
+
+    /** The alphabet of _enigma. */
+    private final Alphabet _alphabet;
+
+    /** The rotor orders searched. */
+    private final List<int[]> _orders;
+
+    /** Number of combinations of settings for each rotor order. */
+    private final long _settingsCount;
+
+}
@@ -0,0 +1,154 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the cryptanalysis classes.
+ *  @author Yohan Yan
+ */
+public class KeySearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A plaintext long enough to have a recognizable index of
+     *  coincidence. */
+    static final String PLAINTEXT =
+        "FROM HIS SHOULDER HIAWATHA TOOK THE CAMERA OF ROSEWOOD "
+        + "MADE OF SLIDING FOLDING ROSEWOOD NEATLY PUT IT ALL TOGETHER "
+        + "IN ITS CASE IT LAY COMPACTLY FOLDED INTO NEARLY NOTHING "
+        + "BUT HE OPENED OUT THE HINGES PUSHED AND PULLED THE JOINTS "
+        + "AND HINGES TILL IT LOOKED ALL SQUARES AND OBLONGS LIKE A "
+        + "COMPLICATED FIGURE IN THE SECOND BOOK OF EUCLID";
+
+    /** Return a 4-slot, 2-pawl machine with reflectors B and C, fixed
+     *  rotor Beta, and moving rotors I, II, and III. */
+    static Machine smallMachine() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"),
+                                                      UPPER)));
+        rotors.add(new Reflector("C", new Permutation(NAVALA.get("C"),
+                                                      UPPER)));
+        rotors.add(new FixedRotor("BETA",
+                                  new Permutation(NAVALA.get("Beta"),
+                                                  UPPER)));
+        String[][] moving = { { "I", "Q" }, { "II", "E" }, { "III", "V" } };
+        for (String[] rotor : moving) {
+            rotors.add(new MovingRotor(rotor[0],
+                    new Permutation(NAVALA.get(rotor[0]), UPPER),
+                    rotor[1]));
+        }
+        return new Machine(UPPER, 4, 2, rotors);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testRotorOrders() {
+        KeySearch search = new KeySearch(smallMachine(), null);
+        assertEquals(2 * 1 * 3 * 2, search.numOrders());
+        assertEquals(12L * 26 * 26 * 26, search.numCandidates());
+    }
+
+    @Test
+    public void testIndexOfCoincidence() {
+        assertEquals(1.0, KeySearch.indexOfCoincidence(new int[] { 4, 0 },
+                                                       4), 1e-9);
+        assertEquals(0.0, KeySearch.indexOfCoincidence(new int[] { 1, 1 },
+                                                       2), 1e-9);
+    }
+
+    @Test
+    public void testSearch() {
+        Permutation plugboard = new Permutation("(AQ) (EP)", UPPER);
+        Machine enigma = smallMachine();
+        enigma.insertRotors(new String[] { "C", "BETA", "III", "I" });
+        enigma.setRotors("KDX");
+        enigma.setPlugboard(plugboard);
+        String ciphertext = enigma.convert(PLAINTEXT);
+
+        Machine searched = smallMachine();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        List<KeySearch.Candidate> best =
+            new KeySearch(searched, plugboard).search(ciphertext, 3, pool);
+        pool.shutdown();
+        assertEquals(3, best.size());
+        assertTrue(best.get(0).score() >= best.get(1).score());
+        assertEquals("C BETA III I", String.join(" ", best.get(0).rotors()));
+        searched.restore(best.get(0).state());
+        assertEquals(PLAINTEXT.replace(" ", ""),
+                     searched.convert(ciphertext));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testSearchNoKeys() {
+        Machine enigma = smallMachine();
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            new KeySearch(enigma, null).search("ABCDEF", 0, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testPlugboardSolver() {
+        String cycles = "(AQ) (EP) (KM) (TZ)";
+        Machine enigma = smallMachine();
+        enigma.insertRotors(new String[] { "B", "BETA", "I", "II" });
+        enigma.setRotors("RFW");
+        MachineState start = enigma.snapshot();
+        enigma.setPlugboard(new Permutation(cycles, UPPER));
+        String ciphertext = enigma.convert(PLAINTEXT + PLAINTEXT);
+
+        PlugboardSolver solver =
+            new PlugboardSolver(smallMachine(), start, ciphertext);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        String found = solver.solve(8, 1, pool);
+        pool.shutdown();
+        assertEquals(cycles, found);
+        assertTrue(solver.score(cycles) > solver.score(""));
+    }
+
+    @Test
+    public void testBombe() {
+        Machine enigma = smallMachine();
+        enigma.insertRotors(new String[] { "B", "BETA", "II", "III" });
+        enigma.setRotors("MUD");
+        enigma.setPlugboard(new Permutation("(AQ) (EP) (KM) (TZ) (HX)",
+                                            UPPER));
+        String ciphertext = enigma.convert(PLAINTEXT);
+        String crib = "HISSHOULDERHIAWATHATOOKTHECAMERA";
+
+        Bombe bombe = new Bombe(smallMachine(), ciphertext, crib, 4);
+        assertEquals(12L * 26 * 26 * 26, bombe.numCandidates());
+        ForkJoinPool pool = new ForkJoinPool(2);
+        List<Bombe.Stop> stops = bombe.search(pool);
+        pool.shutdown();
+        assertEquals(1, stops.size());
+        assertEquals("B BETA II III MUD (AQ) (EP) (HX) (KM) (TZ)",
+                     stops.get(0).toString());
+        Machine decrypter = smallMachine();
+        decrypter.restore(stops.get(0).state());
+        decrypter.setPlugboard(new Permutation(stops.get(0).plugboard(),
+                                               UPPER));
+        assertEquals(PLAINTEXT.replace(" ", ""),
+                     decrypter.convert(ciphertext));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBombeSelfEncipherment() {
+        new Bombe(smallMachine(), "ABC", "XBZ", 0);
+    }
+}
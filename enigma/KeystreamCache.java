@@ -0,0 +1,147 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/** A cache of keystream tables shared by machines, for input that uses
+ *  the same rotor order and plugboard for many messages with different
+ *  start settings.  A keystream table gives, for every combination of
+ *  settings of the moving rotors, the substitution the machine performs
+ *  at those settings, so converting a character becomes one table load.
+ *  Tables are kept in least-recently-used order and evicted to keep
+ *  their total size within a memory budget.  A cache may be used by
+ *  several threads at once.
+ *  @author Yohan Yan
+ */
+class KeystreamCache {
+
+    /** Default memory budget, in bytes. */
+    static final long DEFAULT_BUDGET = 64L << 20;
+
+    /** A cache holding at most BUDGET bytes of tables. */
+    KeystreamCache(long budget) {
+        _budget = budget;
+    }
+
+    /** Return the memory budget, in bytes. */
+    long budget() {
+        return _budget;
+    }
+
+    /** Return the total size of the cached tables, in bytes. */
+    synchronized long size() {
+        return _size;
+    }
+
+    /** Return the number of cached tables. */
+    synchronized int tables() {
+        return _tables.size();
+    }
+
+    /** Return true iff a table of ENTRIES ints fits within my budget. */
+    boolean fits(long entries) {
+        return entries * Integer.BYTES <= _budget;
+    }
+
+    /** Return the table for the configuration KEY, computing it with
+     *  BUILDER if it is not cached, or null if it would not fit within my
+     *  budget.  ENTRIES is the length of the table. */
+    int[] get(Key key, long entries, Supplier<int[]> builder) {
+        if (!fits(entries)) {
+            return null;
+        }
+        synchronized (this) {
+            int[] table = _tables.get(key);
+            if (table != null) {
+                return table;
+            }
+        }
+        int[] table = builder.get();
+        synchronized (this) {
+            int[] other = _tables.get(key);
+            if (other != null) {
+                return other;
+            }
+            _tables.put(key, table);
+            _size += bytes(table);
+            Iterator<Map.Entry<Key, int[]>> oldest =
+                _tables.entrySet().iterator();
+            while (_size > _budget) {
+                _size -= bytes(oldest.next().getValue());
+                oldest.remove();
+            }
+        }
+        return table;
+    }
+
+    /** Return the size of TABLE, in bytes. */
+    private static long bytes(int[] table) {
+        return (long) table.length * Integer.BYTES;
+    }
+
+    /** Identifies a machine configuration: the wirings of its rotors,
+     *  and numbers describing everything else that stays fixed while
+     *  characters are converted (rotor numbers, settings of rotors that
+     *  do not move, and the plugboard). */
+    static final class Key {
+
+        /** A key for rotors with wirings WIRINGS, compared by identity,
+         *  and the configuration described by DATA.  The arrays are not
+         *  copied. */
+        Key(Permutation[] wirings, int[] data) {
+            _wirings = wirings;
+            _data = data;
+            int hash = Arrays.hashCode(data);
+            for (Permutation wiring : wirings) {
+                hash = hash * 31 + System.identityHashCode(wiring);
+            }
+            _hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            if (_hash != other._hash
+                || _wirings.length != other._wirings.length) {
+                return false;
+            }
+            for (int i = 0; i < _wirings.length; i += 1) {
+                if (_wirings[i] != other._wirings[i]) {
+                    return false;
+                }
+            }
+            return Arrays.equals(_data, other._data);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** Wirings of the rotors. */
+        private final Permutation[] _wirings;
+
+        /** The rest of the configuration. */
+        private final int[] _data;
+
+        /** My hash code. */
+        private final int _hash;
+    }
+
+    /** Memory budget, in bytes. */
+    private final long _budget;
+
+    /** Total size of _tables, in bytes. */
+    private long _size;
+
+    /** The cached tables, least recently used first. */
+    private final LinkedHashMap<Key, int[]> _tables =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+}
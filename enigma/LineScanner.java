@@ -0,0 +1,146 @@
+package enigma;
+
+/** Recognizes the settings and message lines of the input, which is
+ *  presented in successive blocks.  A line whose first non-blank
+ *  character is "*", followed by a blank or the end of the line, is a
+ *  settings line, and any other line is a message.  Lines end with "\n",
+ *  "\r", or "\r\n", and a line may span blocks, as may a "\r\n".
+ *
+ *  Subclasses hold the blocks, as chars or as bytes, and act on what is
+ *  found: message text is handed over in runs, each lying within one
+ *  block, as it is scanned, and each settings line is handed over whole
+ *  when it ends.
+ *  @author Yohan Yan
+ */
+abstract class LineScanner {
+
+    /** Scan the first N characters of the current block, continuing from
+     *  the state left by the previous block. */
+    final void scan(int n) {
+        int i = 0;
+        if (_skipNewline && n > 0 && charAt(0) == '\n') {
+            i = 1;
+        }
+        _skipNewline = false;
+        while (i < n) {
+            int c = charAt(i);
+            if (c == '\n' || c == '\r') {
+                endLine();
+                i += 1;
+                if (c == '\r') {
+                    if (i == n) {
+                        _skipNewline = true;
+                    } else if (charAt(i) == '\n') {
+                        i += 1;
+                    }
+                }
+                continue;
+            }
+            _lineStarted = true;
+            switch (_state) {
+            case LINE_START:
+                if (c == '*') {
+                    _state = STAR;
+                    i += 1;
+                } else if (Machine.isSpace((char) c)) {
+                    i += 1;
+                } else {
+                    _state = MESSAGE;
+                }
+                break;
+            case STAR:
+                if (Machine.isSpace((char) c)) {
+                    _settings.append('*');
+                    _state = SETTINGS;
+                } else {
+                    convertStar();
+                    _state = MESSAGE;
+                }
+                break;
+            case SETTINGS:
+                _settings.append((char) c);
+                i += 1;
+                break;
+            default:
+                int j = i;
+                while (j < n && (c = charAt(j)) != '\n' && c != '\r') {
+                    j += 1;
+                }
+                convert(i, j);
+                i = j;
+                break;
+            }
+        }
+    }
+
+    /** Finish the last line of input, if it is unterminated. */
+    final void finish() {
+        if (_lineStarted) {
+            endLine();
+        }
+    }
+
+    /** Return the character at index I of the current block (for blocks
+     *  of bytes, the byte as an unsigned value). */
+    abstract int charAt(int i);
+
+    /** Convert the characters at indices FROM .. TO-1 of the current
+     *  block, part of a message line, and append the result to the
+     *  current output line. */
+    abstract void convert(int from, int to);
+
+    /** Convert a "*" beginning a message line, and append the result to
+     *  the current output line. */
+    abstract void convertStar();
+
+    /** Terminate the current output line. */
+    abstract void endOutputLine();
+
+    /** Apply the settings line SETTINGS, whose characters are those
+     *  returned by charAt. */
+    abstract void setUp(String settings);
+
+    /** Finish the current input line, applying it if it was a settings
+     *  line, and otherwise terminating the current output line. */
+    private void endLine() {
+        if (_state == STAR || _state == SETTINGS) {
+            if (_state == STAR) {
+                _settings.append('*');
+            }
+            String settings = _settings.toString();
+            _settings.setLength(0);
+            setUp(settings);
+        } else {
+            endOutputLine();
+        }
+        _state = LINE_START;
+        _lineStarted = false;
+    }
+
+    /** Scanner state: at the start of a line, having seen only blanks. */
+    private static final int LINE_START = 0;
+
+    /** Scanner state: the first non-blank character of the line is "*". */
+    private static final int STAR = 1;
+
+    /** Scanner state: in a settings line. */
+    private static final int SETTINGS = 2;
+
+    /** Scanner state: in a message line. */
+    private static final int MESSAGE = 3;
+
+    /** Current state. */
+    private int _state = LINE_START;
+
+    /** True iff the current input line contains any characters. */
+    private boolean _lineStarted;
+
+    /** True iff the last block of input ended in a carriage return, so
+     *  that a newline starting the next block is part of the same line
+     *  terminator. */
+    private boolean _skipNewline;
+
+    /** Text of the settings line being read. */
+    private final StringBuilder _settings = new StringBuilder();
+
+}
@@ -1,6 +1,10 @@
 package enigma;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
 import static enigma.EnigmaException.*;
 
 
@@ -9,6 +13,9 @@ import static enigma.EnigmaException.*;
  */
 class Machine {
 
+    /** Number of messages converted together by convertBatch. */
+    static final int BATCH_BLOCK = 1 << 8;
+
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
 
@@ -18,15 +25,73 @@ class Machine {
     /** The number of pawls. */
     private int _pawls;
 
-    /** A collection of the rotors that the machine has access to. */
-    private Collection<Rotor> _allRotors;
+    /** The rotors that the machine has access to.  The index of a rotor
+     *  in this array is its id. */
+    private final Rotor[] _rotors;
+
+    /** Maps the name of each rotor in _rotors to its id (the first, if
+     *  several rotors share a name).  Shared with my copies. */
+    private final HashMap<String, Integer> _rotorIds;
+
+    /** The ids of the rotors named in the last call to insertRotors, as
+     *  they are validated. */
+    private final int[] _insertedIds;
+
+    /** _inserted[ID] == _insertion iff rotor ID has already been named in
+     *  the current call to insertRotors. */
+    private final int[] _inserted;
+
+    /** The number of calls to insertRotors, which distinguishes the marks
+     *  in _inserted made by each call. */
+    private int _insertion;
 
     /** An array of rotors that the machine uses. */
     private Rotor[] _selectedRotors;
 
+    /** The ids of the rotors in _selectedRotors. */
+    private final int[] _selectedIds;
+
     /** Permutation of the plugboard. */
     private Permutation _plugboard;
 
+    /** _entry[S][C] is the result of passing C through the plugboard and
+     *  then forward through the rightmost rotor at setting S. */
+    private final int[][] _entry;
+
+    /** _exit[S][C] is the result of passing C backward through the
+     *  rightmost rotor at setting S and then through the plugboard. */
+    private final int[][] _exit;
+
+    /** _fused[C] is the result of passing C forward through all rotors
+     *  but the rightmost, through the reflector, and back, at their
+     *  current settings. */
+    private final int[] _fused;
+
+    /** True iff _entry and _exit must be recomputed. */
+    private boolean _entryStale = true;
+
+    /** True iff _fused must be recomputed. */
+    private boolean _fusedStale = true;
+
+    /** Source of keystream tables, or null if they are not used. */
+    private KeystreamCache _keystreamCache;
+
+    /** The keystream table for my current configuration, or null.  For
+     *  each combination S of settings of the rotors in slots _moving
+     *  (treated as the digits of a number, most significant first),
+     *  _keystream[S * alphabet size + C] is the conversion of C. */
+    private int[] _keystream;
+
+    /** Slots of my selected rotors that rotate, left to right. */
+    private int[] _moving;
+
+    /** True iff _keystream must be looked up again. */
+    private boolean _keystreamStale = true;
+
+    /** Translates between bytes and my alphabet, or null if not yet
+     *  needed. */
+    private ByteTable _byteTable;
+
     /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
      *  and 0 <= PAWLS < NUMROTORS pawls.  ALLROTORS contains all the
      *  available rotors. */
@@ -35,8 +100,96 @@ class Machine {
         _alphabet = alpha;
         _numRotors = numRotors;
         _pawls = pawls;
-        _allRotors = allRotors;
+        _rotors = allRotors.toArray(new Rotor[allRotors.size()]);
+        _rotorIds = new HashMap<>();
+        for (int id = _rotors.length - 1; id >= 0; id -= 1) {
+            _rotorIds.put(_rotors[id].name(), id);
+        }
         _selectedRotors = new Rotor[numRotors];
+        _selectedIds = new int[numRotors];
+        _insertedIds = new int[numRotors];
+        _inserted = new int[_rotors.length];
+        int size = alpha.size();
+        _entry = new int[size][size];
+        _exit = new int[size][size];
+        _fused = new int[size];
+    }
+
+    /** A copy of ORIGINAL with its configuration, but none of its state,
+     *  whose rotors are copies of ORIGINAL's.  The rotor ids, the
+     *  keystream cache, and the byte table, none of which change once
+     *  made, are shared; the tables that depend on the selected rotors
+     *  and plugboard are my own, and are computed when first needed. */
+    private Machine(Machine original) {
+        _alphabet = original._alphabet;
+        _numRotors = original._numRotors;
+        _pawls = original._pawls;
+        _rotors = new Rotor[original._rotors.length];
+        for (int id = 0; id < _rotors.length; id += 1) {
+            _rotors[id] = original._rotors[id].copy();
+        }
+        _rotorIds = original._rotorIds;
+        _selectedRotors = new Rotor[_numRotors];
+        _selectedIds = new int[_numRotors];
+        _insertedIds = new int[_numRotors];
+        _inserted = new int[_rotors.length];
+        int size = _alphabet.size();
+        _entry = new int[size][size];
+        _exit = new int[size][size];
+        _fused = new int[size];
+        _plugboard = original._plugboard;
+        _keystreamCache = original._keystreamCache;
+        _byteTable = original._byteTable;
+    }
+
+    /** Return a new machine with my configuration and current state whose
+     *  rotors are copies of mine, sharing their wiring, so that it can be
+     *  used independently of me (for example, in another thread).  Only
+     *  the rotor settings are duplicated, so copying is cheap. */
+    Machine copy() {
+        Machine result = new Machine(this);
+        if (_selectedRotors[0] != null) {
+            result.restore(snapshot());
+        }
+        return result;
+    }
+
+    /** Return a record of my current state. */
+    MachineState snapshot() {
+        checkRotors();
+        int[] settings = new int[_numRotors];
+        for (int x = 0; x < _numRotors; x += 1) {
+            settings[x] = _selectedRotors[x].setting();
+        }
+        return new MachineState(_selectedIds.clone(), settings, _plugboard);
+    }
+
+    /** Return me to STATE, which must have been produced by snapshot() on
+     *  me or on a machine of which I am a copy (or that is a copy of
+     *  me).  The rotors are not validated again. */
+    void restore(MachineState state) {
+        if (state.numRotors() != _numRotors) {
+            throw error("machine state has the wrong number of rotors");
+        }
+        for (int x = 0; x < _numRotors; x += 1) {
+            int id = state.rotorId(x);
+            _selectedIds[x] = id;
+            _selectedRotors[x] = _rotors[id];
+            _rotors[id].set(state.setting(x));
+        }
+        _plugboard = state.plugboard();
+        _entryStale = _fusedStale = _keystreamStale = true;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return all the rotors available to me, indexed by the rotor
+     *  numbers used in MachineState. */
+    Rotor[] availableRotors() {
+        return _rotors;
     }
 
     /** Return the number of rotor slots I have. */
@@ -51,46 +204,46 @@ class Machine {
 
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
-     *  Initially, all rotors are set at their 0 setting. */
+     *  Initially, all rotors are set at their 0 setting.  The names are
+     *  looked up and checked in one pass, without allocating, and my
+     *  rotors are unchanged if they are invalid. */
     void insertRotors(String[] rotors) {
-        int count = 0;
-        int secondCount = 0;
-        for (int x = 0; x < rotors.length; x++) {
-            for (Rotor r : _allRotors) {
-                if (rotors[x].equals(r.name())) {
-                    _selectedRotors[x] = r;
-                    if (r.rotates()) {
-                        secondCount += 1;
-                    }
-                    count = 0;
-                    break;
-                } else {
-                    count += 1;
-                    if (count >= _allRotors.size()) {
-                        throw error("Rotor does not exist");
-                    }
-                }
-            }
+        if (Metrics.ENABLED) {
+            Metrics.ROTOR_INSERTIONS.increment();
         }
-        if (numPawls() != secondCount) {
-            throw new EnigmaException("Not all moving rotors have a pawl");
+        if (rotors.length != _numRotors) {
+            throw error("Wrong number of rotors");
         }
-        for (int i = 0; i < _selectedRotors.length; i++) {
-            for (int j = i + 1; j < _selectedRotors.length; j++) {
-                if (_selectedRotors[i].name()
-                        .equals(_selectedRotors[j].name())) {
-                    throw new EnigmaException("Duplicate");
-                }
+        _insertion += 1;
+        int moving = 0;
+        for (int x = 0; x < rotors.length; x += 1) {
+            Integer id = _rotorIds.get(rotors[x]);
+            if (id == null) {
+                throw error("Rotor does not exist");
             }
-        }
-        if (!_selectedRotors[0].reflecting()) {
-            throw new EnigmaException("First rotor is not a reflector");
-        }
-        for (int x = 1; x < _selectedRotors.length; x++) {
-            if (_selectedRotors[x].reflecting()) {
+            if (_inserted[id] == _insertion) {
+                throw new EnigmaException("Duplicate");
+            }
+            _inserted[id] = _insertion;
+            Rotor r = _rotors[id];
+            if (x == 0 && !r.reflecting()) {
+                throw new EnigmaException("First rotor is not a reflector");
+            } else if (x > 0 && r.reflecting()) {
                 throw new EnigmaException("More than one reflector");
             }
+            if (r.rotates()) {
+                moving += 1;
+            }
+            _insertedIds[x] = id;
+        }
+        if (numPawls() != moving) {
+            throw new EnigmaException("Not all moving rotors have a pawl");
         }
+        for (int x = 0; x < rotors.length; x += 1) {
+            _selectedIds[x] = _insertedIds[x];
+            _selectedRotors[x] = _rotors[_insertedIds[x]];
+        }
+        _entryStale = _fusedStale = _keystreamStale = true;
     }
 
     /** Set my rotors according to SETTING, which must be a string of
@@ -107,9 +260,22 @@ class Machine {
                 throw new EnigmaException("Not in alphabet");
             }
         }
+        _fusedStale = _keystreamStale = true;
+    }
+
+    /** Set the rotor in each slot K > 0 to setting SETTINGS[K - 1], as for
+     *  setRotors(String) but without checking or decoding characters. */
+    void setRotors(int[] settings) {
+        for (int x = 1; x < _numRotors; x += 1) {
+            _selectedRotors[x].set(settings[x - 1]);
+        }
+        _fusedStale = _keystreamStale = true;
     }
 
-    /** @return an array. */
+    /** Return my selected rotors, reflector first.  A rotor's setting
+     *  should be changed only through my methods, which keep my
+     *  conversion tables up to date.
+     *  @return an array. */
     Rotor[] selectRotors() {
         return _selectedRotors;
     }
@@ -117,55 +283,701 @@ class Machine {
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
         _plugboard = plugboard;
+        _entryStale = _keystreamStale = true;
+    }
+
+    /** Use keystream tables from CACHE to convert characters, or stop
+     *  using them if CACHE is null.  Tables too large for CACHE are not
+     *  used.  My copies share CACHE. */
+    void setKeystreamCache(KeystreamCache cache) {
+        _keystreamCache = cache;
+        _keystream = null;
+        _keystreamStale = true;
     }
 
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
-     *  the machine. */
+     *  the machine.  Only the rightmost rotor moves between notch
+     *  events, so the plugboard is folded into that rotor's tables, and
+     *  the path through the other rotors and the reflector is fused into
+     *  a single table, rebuilt only when one of those rotors moves. */
     int convert(int c) {
-        if (_plugboard != null) {
-            c = _plugboard.permute(c);
-        }
-        HashSet<Integer> rotatedRotors = new HashSet<>();
-        rotatedRotors.add(_selectedRotors.length - 1);
-        for (int x = _selectedRotors.length - 1; x > -1; x--) {
-            if (_selectedRotors[x].atNotch()) {
-                if (_selectedRotors[x - 1].rotates()) {
-                    rotatedRotors.add(x);
-                    rotatedRotors.add(x - 1);
+        if (c < 0 || c >= _alphabet.size()) {
+            c = Math.floorMod(c, _alphabet.size());
+        }
+        step();
+        if (_keystreamCache != null) {
+            if (_keystreamStale) {
+                findKeystream();
+            }
+            if (_keystream != null) {
+                int size = _fused.length;
+                int state = 0;
+                for (int x : _moving) {
+                    state = state * size + _selectedRotors[x].setting();
+                }
+                return _keystream[state * size + c];
+            }
+        }
+        if (_entryStale) {
+            buildEntry();
+        }
+        if (_fusedStale) {
+            buildFused();
+        }
+        int s = _selectedRotors[_selectedRotors.length - 1].setting();
+        return _exit[s][_fused[_entry[s][c]]];
+    }
+
+    /** Set _keystream to the table for my current configuration from
+     *  _keystreamCache, or to null if it is too large. */
+    private void findKeystream() {
+        Rotor[] rotors = _selectedRotors;
+        int size = _alphabet.size();
+        int moving = 0;
+        for (Rotor r : rotors) {
+            if (r.rotates()) {
+                moving += 1;
+            }
+        }
+        _moving = new int[moving];
+        long entries = size;
+        for (int x = 0, k = 0; x < rotors.length; x += 1) {
+            if (rotors[x].rotates()) {
+                _moving[k] = x;
+                k += 1;
+                entries *= size;
+                if (!_keystreamCache.fits(entries)
+                    || entries > Integer.MAX_VALUE) {
+                    _keystream = null;
+                    _keystreamStale = false;
+                    return;
+                }
+            }
+        }
+        Permutation[] wirings = new Permutation[rotors.length];
+        int[] data = new int[2 * rotors.length + size];
+        for (int x = 0; x < rotors.length; x += 1) {
+            wirings[x] = rotors[x].permutation();
+            data[x] = _selectedIds[x];
+            data[rotors.length + x] =
+                rotors[x].rotates() ? -1 : rotors[x].setting();
+        }
+        for (int c = 0; c < size; c += 1) {
+            data[2 * rotors.length + c] =
+                _plugboard == null ? c : _plugboard.permute(c);
+        }
+        int[] settings = new int[rotors.length];
+        for (int x = 0; x < rotors.length; x += 1) {
+            settings[x] = rotors[x].setting();
+        }
+        int n = (int) entries;
+        _keystream = _keystreamCache.get(
+            new KeystreamCache.Key(wirings, data), n,
+            () -> buildKeystream(n, settings));
+        _keystreamStale = false;
+    }
+
+    /** Return the keystream table, with N entries, for my current rotors
+     *  and plugboard.  SETTINGS gives the settings of the rotors in each
+     *  slot; those of the rotors in _moving are overwritten.  As in
+     *  convert, the path through all but the rightmost rotor is fused
+     *  into one table, recomputed only when one of those rotors' settings
+     *  changes. */
+    private int[] buildKeystream(int n, int[] settings) {
+        Rotor[] rotors = _selectedRotors;
+        int last = rotors.length - 1;
+        int size = _alphabet.size();
+        boolean fastMoves = _moving.length > 0
+            && _moving[_moving.length - 1] == last;
+        int[] table = new int[n];
+        int[] fused = new int[size];
+        int slow = -1;
+        for (int state = 0; state < n / size; state += 1) {
+            for (int k = _moving.length - 1, s = state; k >= 0; k -= 1) {
+                settings[_moving[k]] = s % size;
+                s /= size;
+            }
+            if (!fastMoves || state / size != slow) {
+                slow = state / size;
+                for (int c = 0; c < size; c += 1) {
+                    int p = c;
+                    for (int y = last - 1; y >= 0; y -= 1) {
+                        p = rotors[y].convertForward(p, settings[y]);
+                    }
+                    for (int y = 1; y < last; y += 1) {
+                        p = rotors[y].convertBackward(p, settings[y]);
+                    }
+                    fused[c] = p;
+                }
+            }
+            Rotor fast = rotors[last];
+            for (int c = 0; c < size; c += 1) {
+                int p = _plugboard == null ? c : _plugboard.permute(c);
+                p = fast.convertForward(p, settings[last]);
+                p = fast.convertBackward(fused[p], settings[last]);
+                table[state * size + c] =
+                    _plugboard == null ? p : _plugboard.permute(p);
+            }
+        }
+        return table;
+    }
+
+    /** Compute _entry and _exit from the plugboard and rightmost rotor. */
+    private void buildEntry() {
+        Rotor fast = _selectedRotors[_selectedRotors.length - 1];
+        int size = _alphabet.size();
+        for (int s = 0; s < size; s += 1) {
+            for (int c = 0; c < size; c += 1) {
+                int p = _plugboard == null ? c : _plugboard.permute(c);
+                _entry[s][c] = fast.convertForward(p, s);
+                p = fast.convertBackward(c, s);
+                _exit[s][c] = _plugboard == null ? p : _plugboard.permute(p);
+            }
+        }
+        _entryStale = false;
+    }
+
+    /** Compute _fused from the current settings of the rotors. */
+    private void buildFused() {
+        Rotor[] rotors = _selectedRotors;
+        int last = rotors.length - 1;
+        for (int c = 0; c < _fused.length; c += 1) {
+            int p = c;
+            for (int y = last - 1; y >= 0; y -= 1) {
+                p = rotors[y].convertForward(p);
+            }
+            for (int y = 1; y < last; y += 1) {
+                p = rotors[y].convertBackward(p);
+            }
+            _fused[c] = p;
+        }
+        _fusedStale = false;
+    }
+
+    /** Fill RESULT[0 .. alphabet size - 1] with the conversion of each
+     *  character by my rotors at their current settings, without
+     *  advancing them and without the plugboard. */
+    void substitution(int[] result) {
+        checkRotors();
+        Rotor[] rotors = _selectedRotors;
+        for (int c = 0; c < _alphabet.size(); c += 1) {
+            int p = c;
+            for (int y = rotors.length - 1; y >= 0; y -= 1) {
+                p = rotors[y].convertForward(p);
+            }
+            for (int y = 1; y < rotors.length; y += 1) {
+                p = rotors[y].convertBackward(p);
+            }
+            result[c] = p;
+        }
+    }
+
+    /** Advance my rotors as for one key press.  The rightmost rotor always
+     *  advances; any other rotor advances if it has a pawl and either the
+     *  rotor to its right is at a notch or it is itself at a notch (the
+     *  double step).  Rotors are visited left to right, so every decision
+     *  is made before the rotor to the right has moved, and no scratch
+     *  storage is needed. */
+    void step() {
+        Rotor[] rotors = _selectedRotors;
+        int last = rotors.length - 1;
+        for (int x = 1; x < last; x += 1) {
+            Rotor r = rotors[x];
+            if (r.rotates()
+                && (rotors[x + 1].atNotch()
+                    || r.atNotch() && rotors[x - 1].rotates())) {
+                if (Metrics.ENABLED && r.atNotch()
+                    && rotors[x - 1].rotates()) {
+                    Metrics.DOUBLE_STEPS.increment();
                 }
+                r.advance();
+                _fusedStale = true;
             }
         }
-        for (int x : rotatedRotors) {
-            _selectedRotors[x].advance();
+        rotors[last].advance();
+    }
+
+    /** Advance my rotors as they would be by N key presses, where
+     *  N >= 0, including double steps, in time independent of N.
+     *
+     *  After the first key press, which is simulated, no rotor can be at
+     *  a notch at the same time as the rotor to its right is, as long as
+     *  no rotor has notches at two adjacent settings.  In that case the
+     *  motion of each rotor is determined by the number of times the
+     *  rotor to its right carries into it: each carry moves it one
+     *  setting, and when that lands it on a notch, it steps again on the
+     *  next key press (if that comes within N), carrying into the rotor to
+     *  its left.  The carries that land on notches recur with a period of
+     *  one revolution, so the settings reached and the number and times
+     *  of the carries passed to the left can be computed arithmetically,
+     *  rotor by rotor from the right.  Rotors with adjacent notches are
+     *  instead stepped N times. */
+    void advanceBy(long n) {
+        if (n < 0) {
+            throw error("cannot advance by a negative amount");
         }
-        for (int y = _selectedRotors.length - 1; y > -1; y--) {
-            c = _selectedRotors[y].convertForward(c);
+        checkRotors();
+        if (n == 0) {
+            return;
         }
-        for (int y = 1; y < _selectedRotors.length; y++) {
-            c = _selectedRotors[y].convertBackward(c);
+        _fusedStale = true;
+        step();
+        Rotor[] rotors = _selectedRotors;
+        int last = rotors.length - 1;
+        long m = n - 1;
+        if (m == 0) {
+            return;
+        } else if (hasAdjacentNotches()) {
+            for (; m > 0; m -= 1) {
+                step();
+            }
+            return;
         }
-        if (_plugboard != null) {
-            c = _plugboard.permute(c);
+        int size = _alphabet.size();
+        int[][] offsets = new int[rotors.length][];
+        int[] period = new int[rotors.length];
+        int[] initial = new int[rotors.length];
+        Rotor fast = rotors[last];
+        int posn = fast.setting();
+        offsets[last] = notchOffsets(fast, posn, rotors[last - 1].rotates());
+        period[last] = size;
+        long carries = 0;
+        if (fast.rotates()) {
+            fast.set((int) ((posn + m) % size));
+            carries = count(offsets[last], period[last], m);
+        }
+        for (int x = last - 1; x > 0; x -= 1) {
+            Rotor r = rotors[x];
+            posn = r.setting();
+            if (!r.rotates()) {
+                carries = 0;
+                continue;
+            } else if (!rotors[x - 1].rotates()) {
+                r.set((int) ((posn + carries) % size));
+                carries = 0;
+                continue;
+            }
+            initial[x] = r.atNotch() ? 1 : 0;
+            posn = (posn + initial[x]) % size;
+            offsets[x] = landingOffsets(r, posn);
+            period[x] = size - offsets[x].length;
+            long landings = count(offsets[x], period[x], carries);
+            long moves = initial[x] + carries + landings;
+            long out = initial[x] + landings;
+            if (carries > 0
+                && contains(offsets[x], (carries - 1) % period[x])
+                && carryTime(x + 1, carries - 1, offsets, period, initial)
+                   == m - 1) {
+                moves -= 1;
+                out -= 1;
+            }
+            r.set((int) ((r.setting() + moves) % size));
+            carries = out;
         }
-        return c;
+    }
+
+    /** Return true iff some selected rotor that can carry into its
+     *  left neighbor has notches at two adjacent settings. */
+    private boolean hasAdjacentNotches() {
+        int size = _alphabet.size();
+        for (int x = 1; x < _selectedRotors.length; x += 1) {
+            Rotor r = _selectedRotors[x];
+            if (_selectedRotors[x - 1].rotates()) {
+                for (int p = 0; p < size; p += 1) {
+                    if (r.notchAt(p) && r.notchAt((p + 1) % size)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return the distances, in increasing order, from setting POSN of
+     *  rotor R to its notches, or an empty array if CARRIES is false. */
+    private static int[] notchOffsets(Rotor r, int posn, boolean carries) {
+        int size = r.size();
+        int count = 0;
+        int[] offsets = new int[size];
+        for (int d = 0; carries && d < size; d += 1) {
+            if (r.notchAt((posn + d) % size)) {
+                offsets[count] = d;
+                count += 1;
+            }
+        }
+        return Arrays.copyOf(offsets, count);
+    }
+
+    /** Return the indices, in increasing order, of the carries into rotor
+     *  R that land it on a notch during one revolution starting from
+     *  setting POSN, given that R steps off each notch immediately. */
+    private static int[] landingOffsets(Rotor r, int posn) {
+        int size = r.size();
+        int count = 0;
+        int[] offsets = new int[size];
+        for (int j = 0, p = posn; p < posn + size; j += 1) {
+            p += 1;
+            if (r.notchAt(p % size)) {
+                offsets[count] = j;
+                count += 1;
+                p += 1;
+            }
+        }
+        return Arrays.copyOf(offsets, count);
+    }
+
+    /** Return the number of values less than K in the sequence formed by
+     *  the OFFSETS within each successive block of PERIOD values. */
+    private static long count(int[] offsets, int period, long k) {
+        long result = (k / period) * offsets.length;
+        for (int offset : offsets) {
+            if (offset < k % period) {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return true iff OFFSETS contains K. */
+    private static boolean contains(int[] offsets, long k) {
+        for (int offset : offsets) {
+            if (offset == k) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the key press (counting from 0 after the first) at which
+     *  selected rotor X carries into its left neighbor for the Ith time,
+     *  as described by the OFFSETS, PERIOD, and INITIAL carries computed
+     *  by advanceBy. */
+    private long carryTime(int x, long i, int[][] offsets, int[] period,
+                           int[] initial) {
+        int last = _selectedRotors.length - 1;
+        long delay = 0;
+        for (; x < last; x += 1) {
+            if (i < initial[x]) {
+                return delay;
+            }
+            i -= initial[x];
+            int k = offsets[x].length;
+            i = (i / k) * period[x] + offsets[x][(int) (i % k)];
+            delay += 1;
+        }
+        int k = offsets[last].length;
+        return (i / k) * period[last] + offsets[last][(int) (i % k)] + delay;
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        if (_selectedRotors[0] == null) {
-            throw new EnigmaException("No rotors");
+        char[] buffer = msg.toCharArray();
+        int len = convert(buffer, 0, buffer.length, buffer);
+        return new String(buffer, 0, len);
+    }
+
+    /** Convert the characters IN[OFF .. OFF+LEN-1], skipping whitespace
+     *  and converting lower case to upper case, and store the results in
+     *  OUT starting at index 0, updating the state of the rotors
+     *  accordingly.  Returns the number of characters stored.  OUT may be
+     *  IN, since no character is stored past the one being read. */
+    int convert(char[] in, int off, int len, char[] out) {
+        checkRotors();
+        int k = 0;
+        for (int y = off; y < off + len; y += 1) {
+            char c = in[y];
+            if (!isSpace(c)) {
+                out[k] = convertChar(c);
+                k += 1;
+            }
+        }
+        if (Metrics.ENABLED) {
+            Metrics.CHARS_CONVERTED.add(k);
+        }
+        return k;
+    }
+
+    /** Returns the encoding/decoding of MSG as for convert(String),
+     *  dividing the work among the threads of POOL. */
+    String convert(String msg, ForkJoinPool pool) {
+        char[] buffer = msg.toCharArray();
+        int len = convert(buffer, 0, buffer.length, buffer, pool);
+        return new String(buffer, 0, len);
+    }
+
+    /** Convert IN[OFF .. OFF+LEN-1] into OUT as for convert(char[], int,
+     *  int, char[]), with identical results, but dividing the work among
+     *  the threads of POOL.  The message is split into chunks, each
+     *  converted by a copy of me advanced directly to the state I would
+     *  have at its start; afterwards I am advanced past the whole
+     *  message. */
+    int convert(char[] in, int off, int len, char[] out, ForkJoinPool pool) {
+        checkRotors();
+        int k = 0;
+        for (int y = off; y < off + len; y += 1) {
+            char c = in[y];
+            if (!isSpace(c)) {
+                out[k] = c;
+                k += 1;
+            }
+        }
+        if (k <= ConversionTask.CHUNK) {
+            convertInPlace(out, 0, k);
+        } else {
+            pool.invoke(new ConversionTask(copy(), out, 0, k));
+            advanceBy(k);
+        }
+        if (Metrics.ENABLED) {
+            Metrics.CHARS_CONVERTED.add(k);
+        }
+        return k;
+    }
+
+    /** Replace each of CHARS[FROM .. TO-1], none of which is whitespace,
+     *  with its encoding/decoding, updating the state of the rotors
+     *  accordingly. */
+    void convertInPlace(char[] chars, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            chars[i] = convertChar(chars[i]);
+        }
+    }
+
+    /** Return the encodings/decodings of MSG starting from each of the
+     *  rotor settings in SETTINGS, as for setRotors(String), with my
+     *  current rotors and plugboard.  My own settings are not changed. */
+    String[] convertBatch(String msg, String[] settings) {
+        int[][] start = new int[settings.length][];
+        for (int m = 0; m < settings.length; m += 1) {
+            String setting = settings[m];
+            if (setting.length() != numRotors() - 1) {
+                throw error("Settings and rotors do not match");
+            }
+            start[m] = new int[setting.length()];
+            for (int x = 0; x < setting.length(); x += 1) {
+                if (!_alphabet.contains(setting.charAt(x))) {
+                    throw error("Not in alphabet");
+                }
+                start[m][x] = _alphabet.toInt(setting.charAt(x));
+            }
+        }
+        int[] text = _alphabet.indices(msg);
+        int[][] converted = convertBatch(text, start);
+        String[] result = new String[settings.length];
+        char[] chars = new char[text.length];
+        for (int m = 0; m < settings.length; m += 1) {
+            for (int i = 0; i < text.length; i += 1) {
+                chars[i] = _alphabet.toChar(converted[m][i]);
+            }
+            result[m] = new String(chars);
+        }
+        return result;
+    }
+
+    /** Return the conversions of TEXT (alphabet indices) starting from
+     *  each of the rotor settings in SETTINGS, as for setRotors(int[]),
+     *  with my current rotors and plugboard: RESULT[M][I] is the
+     *  conversion of TEXT[I] starting from SETTINGS[M].  My own settings
+     *  are not changed.
+     *
+     *  The messages are converted BATCH_BLOCK at a time, a character at
+     *  a time, with the setting of each slot kept in one array across
+     *  messages, so that each step is a simple loop over those arrays
+     *  rather than a pass through the machine per message.  The
+     *  plugboard is folded into the rightmost rotor as in convert(int),
+     *  and the reflector and fixed rotors, whose settings do not change,
+     *  are fused into one table per message. */
+    int[][] convertBatch(int[] text, int[][] settings) {
+        checkRotors();
+        if (_entryStale) {
+            buildEntry();
         }
-        msg = msg.replaceAll("\\s+", "");
-        if (msg != null) {
-            msg = msg.toUpperCase();
+        int[][] result = new int[settings.length][];
+        for (int m = 0; m < settings.length; m += BATCH_BLOCK) {
+            int n = Math.min(BATCH_BLOCK, settings.length - m);
+            convertBlock(text, settings, m, n, result);
         }
-        String message = "";
-        for (int y = 0; y < msg.length(); y++) {
-            char c = msg.charAt(y);
-            message += _alphabet.toChar(convert(_alphabet.toInt(c)));
+        if (Metrics.ENABLED) {
+            Metrics.CHARS_CONVERTED.add((long) text.length * settings.length);
         }
-        return message;
+        return result;
+    }
+
+    /** Set RESULT[FROM .. FROM+COUNT-1] to the conversions of TEXT from
+     *  SETTINGS[FROM .. FROM+COUNT-1], as for convertBatch, assuming that
+     *  _entry and _exit are current. */
+    private void convertBlock(int[] text, int[][] settings, int from,
+                              int count, int[][] result) {
+        Rotor[] rotors = _selectedRotors;
+        int last = rotors.length - 1;
+        int size = _alphabet.size();
+        int inner = 0;
+        while (inner + 1 < last && !rotors[inner + 1].rotates()) {
+            inner += 1;
+        }
+        int[][] posn = new int[rotors.length][count];
+        boolean[][] notch = new boolean[rotors.length][size];
+        for (int x = 0; x < rotors.length; x += 1) {
+            for (int m = 0; m < count; m += 1) {
+                posn[x][m] = x == 0 ? rotors[0].setting()
+                    : Math.floorMod(settings[from + m][x - 1], size);
+            }
+            for (int s = 0; s < size; s += 1) {
+                notch[x][s] = rotors[x].notchAt(s);
+            }
+        }
+        int[] fixed = new int[count * size];
+        for (int m = 0; m < count; m += 1) {
+            for (int c = 0; c < size; c += 1) {
+                int p = c;
+                for (int y = inner; y >= 0; y -= 1) {
+                    p = rotors[y].convertForward(p, posn[y][m]);
+                }
+                for (int y = 1; y <= inner; y += 1) {
+                    p = rotors[y].convertBackward(p, posn[y][m]);
+                }
+                fixed[m * size + c] = p;
+            }
+        }
+        for (int m = 0; m < count; m += 1) {
+            result[from + m] = new int[text.length];
+        }
+        int[] p = new int[count];
+        for (int i = 0; i < text.length; i += 1) {
+            for (int x = inner + 1; x < last; x += 1) {
+                if (!rotors[x].rotates()) {
+                    continue;
+                }
+                boolean pushed = rotors[x - 1].rotates();
+                int[] here = posn[x], right = posn[x + 1];
+                boolean[] hereNotch = notch[x], rightNotch = notch[x + 1];
+                for (int m = 0; m < count; m += 1) {
+                    if (rightNotch[right[m]] || pushed && hereNotch[here[m]]) {
+                        here[m] = here[m] + 1 == size ? 0 : here[m] + 1;
+                    }
+                }
+            }
+            int[] fast = posn[last];
+            if (rotors[last].rotates()) {
+                for (int m = 0; m < count; m += 1) {
+                    fast[m] = fast[m] + 1 == size ? 0 : fast[m] + 1;
+                }
+            }
+            int c = Math.floorMod(text[i], size);
+            for (int m = 0; m < count; m += 1) {
+                p[m] = _entry[fast[m]][c];
+            }
+            for (int y = last - 1; y > inner; y -= 1) {
+                Rotor r = rotors[y];
+                int[] at = posn[y];
+                for (int m = 0; m < count; m += 1) {
+                    p[m] = r.convertForward(p[m], at[m]);
+                }
+            }
+            for (int m = 0; m < count; m += 1) {
+                p[m] = fixed[m * size + p[m]];
+            }
+            for (int y = inner + 1; y < last; y += 1) {
+                Rotor r = rotors[y];
+                int[] at = posn[y];
+                for (int m = 0; m < count; m += 1) {
+                    p[m] = r.convertBackward(p[m], at[m]);
+                }
+            }
+            for (int m = 0; m < count; m += 1) {
+                result[from + m][i] = _exit[fast[m]][p[m]];
+            }
+        }
+    }
+
+    /** Return the table translating between bytes and my alphabet, which
+     *  must consist of ASCII characters. */
+    ByteTable byteTable() {
+        if (_byteTable == null) {
+            _byteTable = new ByteTable(_alphabet);
+        }
+        return _byteTable;
+    }
+
+    /** Convert the bytes IN[OFF .. OFF+LEN-1], which encode ASCII
+     *  characters, into OUT as for convert(char[], int, int, char[]):
+     *  whitespace is skipped, lower case is converted to upper case if
+     *  necessary, and the results are stored starting at OUT[0].
+     *  Returns the number of bytes stored.  OUT may be IN.  My alphabet
+     *  must consist of ASCII characters. */
+    int convert(byte[] in, int off, int len, byte[] out) {
+        return convert(ByteBuffer.wrap(in), off, len, out);
+    }
+
+    /** Convert the bytes of IN at indices OFF .. OFF+LEN-1 into OUT as
+     *  for convert(byte[], int, int, byte[]), without changing the
+     *  position of IN, and return the number of bytes stored. */
+    int convert(ByteBuffer in, int off, int len, byte[] out) {
+        checkRotors();
+        ByteTable table = byteTable();
+        int k = 0;
+        for (int y = off; y < off + len; y += 1) {
+            int c = table.toInt(in.get(y));
+            if (c == ByteTable.SPACE) {
+                continue;
+            } else if (c == ByteTable.ABSENT) {
+                throw error("character out of range");
+            }
+            out[k] = table.toByte(convert(c));
+            k += 1;
+        }
+        if (Metrics.ENABLED) {
+            Metrics.CHARS_CONVERTED.add(k);
+        }
+        return k;
+    }
+
+    /** Convert all the bytes of IN into OUT as for convert(byte[], int,
+     *  int, byte[]), returning the number of bytes stored. */
+    int convert(byte[] in, byte[] out) {
+        return convert(in, 0, in.length, out);
+    }
+
+    /** Convert the remaining characters of IN as for convert(String),
+     *  putting the results into OUT and stopping early if OUT fills.
+     *  Returns the number of characters put into OUT. */
+    int convert(CharBuffer in, CharBuffer out) {
+        checkRotors();
+        int k = 0;
+        while (in.hasRemaining() && out.hasRemaining()) {
+            char c = in.get();
+            if (!isSpace(c)) {
+                out.put(convertChar(c));
+                k += 1;
+            }
+        }
+        if (Metrics.ENABLED) {
+            Metrics.CHARS_CONVERTED.add(k);
+        }
+        return k;
+    }
+
+    /** Return the encoding/decoding of the single character C, which is
+     *  converted to upper case first if it is not in my alphabet. */
+    private char convertChar(char c) {
+        if (!_alphabet.contains(c)) {
+            c = Character.toUpperCase(c);
+        }
+        return _alphabet.toChar(convert(_alphabet.toInt(c)));
+    }
+
+    /** Check that my rotors have been inserted. */
+    void checkRotors() {
+        if (_selectedRotors[0] == null) {
+            throw new EnigmaException("No rotors");
+        }
+    }
+
+    /** Return true iff C is a whitespace character in the sense of the
+     *  regular expression \\s, which messages may contain. */
+    static boolean isSpace(char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r'
+            || c == '\f' || c == '\u000B';
     }
 }
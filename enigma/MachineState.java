@@ -0,0 +1,66 @@
+package enigma;
+
+import java.util.Arrays;
+
+/** An immutable record of the state of a Machine: which of its available
+ *  rotors occupy its slots, their settings, and its plugboard.  A state
+ *  taken from one machine may be restored to it or to any of its copies.
+ *  @author Yohan Yan
+ */
+class MachineState {
+
+    /** A state in which slot I holds the available rotor numbered
+     *  ROTORIDS[I] at setting SETTINGS[I], with plugboard PLUGBOARD
+     *  (possibly null).  The arrays are not copied. */
+    MachineState(int[] rotorIds, int[] settings, Permutation plugboard) {
+        _rotorIds = rotorIds;
+        _settings = settings;
+        _plugboard = plugboard;
+    }
+
+    /** Return the number of rotor slots described. */
+    int numRotors() {
+        return _rotorIds.length;
+    }
+
+    /** Return the number of the available rotor in slot K. */
+    int rotorId(int k) {
+        return _rotorIds[k];
+    }
+
+    /** Return the setting of the rotor in slot K. */
+    int setting(int k) {
+        return _settings[k];
+    }
+
+    /** Return the plugboard, or null if there is none. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof MachineState)) {
+            return false;
+        }
+        MachineState other = (MachineState) obj;
+        return Arrays.equals(_rotorIds, other._rotorIds)
+            && Arrays.equals(_settings, other._settings)
+            && _plugboard == other._plugboard;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(_rotorIds) * 31 + Arrays.hashCode(_settings);
+    }
+
+    /** Numbers of the rotors in each slot. */
+    private final int[] _rotorIds;
+
+    /** Settings of the rotors in each slot. */
+    private final int[] _settings;
+
+    /** The plugboard. */
+    private final Permutation _plugboard;
+
+}
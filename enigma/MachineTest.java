@@ -0,0 +1,350 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Machine class.
+ *  @author Yohan Yan
+ */
+public class MachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Notches of the naval rotors. */
+    private static final String[][] NOTCHES = {
+        { "I", "Q" }, { "II", "E" }, { "III", "V" }, { "IV", "J" },
+        { "V", "Z" }, { "VI", "ZM" }, { "VII", "ZM" }, { "VIII", "ZM" },
+    };
+
+    /** Return a 5-slot, 3-pawl machine holding all the naval rotors. */
+    static Machine navalMachine() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (String[] rotor : NOTCHES) {
+            rotors.add(new MovingRotor(rotor[0].toUpperCase(),
+                    new Permutation(NAVALA.get(rotor[0]), UPPER),
+                    rotor[1]));
+        }
+        for (String name : new String[] { "Beta", "Gamma" }) {
+            rotors.add(new FixedRotor(name.toUpperCase(),
+                    new Permutation(NAVALA.get(name), UPPER)));
+        }
+        for (String name : new String[] { "B", "C" }) {
+            rotors.add(new Reflector(name,
+                    new Permutation(NAVALA.get(name), UPPER)));
+        }
+        return new Machine(UPPER, 5, 3, rotors);
+    }
+
+    /** Return a naval machine set up as in the Hiawatha example. */
+    static Machine hiawathaMachine() {
+        Machine mach = navalMachine();
+        mach.insertRotors(new String[] { "B", "BETA", "III", "IV", "I" });
+        mach.setRotors("AXLE");
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)",
+                                          UPPER));
+        return mach;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testConvertString() {
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                     hiawathaMachine().convert("FROM his shoulder Hiawatha"));
+    }
+
+    @Test
+    public void testConvertAllocationFree() {
+        com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        Machine mach = hiawathaMachine();
+        long thread = Thread.currentThread().getId();
+        int c = 0;
+        for (int i = 0; i < 200000; i += 1) {
+            c = mach.convert(c);
+        }
+        long before = bean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 1000000; i += 1) {
+            c = mach.convert(c);
+        }
+        long allocated = bean.getThreadAllocatedBytes(thread) - before;
+        assertTrue("convert(int) allocated " + allocated + " bytes",
+                   allocated < 4096);
+    }
+
+    @Test
+    public void testConvertBuffers() {
+        String msg = "FROM his shoulder Hiawatha";
+        char[] in = ("  " + msg + "\t").toCharArray();
+        char[] out = new char[in.length];
+        int n = hiawathaMachine().convert(in, 2, msg.length(), out);
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW", new String(out, 0, n));
+        CharBuffer from = CharBuffer.wrap(msg);
+        CharBuffer to = CharBuffer.allocate(10);
+        Machine mach = hiawathaMachine();
+        assertEquals(10, mach.convert(from, to));
+        assertEquals("QVPQSOKOIL", new String(to.array()));
+        to.clear();
+        assertEquals(10, mach.convert(from, to));
+        assertEquals("PUBKJZPISF", new String(to.array()));
+    }
+
+    @Test
+    public void testConvertBytes() {
+        byte[] msg = "FROM his shoulder\tHiawatha".getBytes();
+        byte[] out = new byte[msg.length];
+        Machine mach = hiawathaMachine();
+        int n = mach.convert(msg, out);
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW", new String(out, 0, n));
+        assertEquals(n, mach.copy().convert(msg, 0, msg.length, msg));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testConvertBytesOutOfRange() {
+        hiawathaMachine().convert("AB*C".getBytes(), new byte[4]);
+    }
+
+    /** Return the settings of the rotors in M, as a string. */
+    private String settings(Machine m) {
+        String result = "";
+        for (Rotor r : m.selectRotors()) {
+            result += UPPER.toChar(r.setting());
+        }
+        return result;
+    }
+
+    @Test
+    public void testAdvanceBy() {
+        String[][] orders = {
+            { "B", "BETA", "III", "IV", "I" },
+            { "C", "GAMMA", "VI", "VIII", "VII" },
+            { "B", "GAMMA", "II", "VII", "V" },
+        };
+        for (String[] order : orders) {
+            for (String start : new String[] { "AAAA", "ZMDQ", "KEZL" }) {
+                Machine stepped = navalMachine();
+                stepped.insertRotors(order);
+                stepped.setRotors(start);
+                Machine jumped = stepped.copy();
+                long done = 0;
+                for (long n : new long[] { 0, 1, 2, 25, 26, 677, 17576 }) {
+                    for (; done < n; done += 1) {
+                        stepped.convert(0);
+                    }
+                    jumped.setRotors(start);
+                    jumped.advanceBy(n);
+                    assertEquals(msg(start, "after %d", n),
+                                 settings(stepped), settings(jumped));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConvertParallel() {
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 100000; i += 1) {
+            msg.append(UPPER_STRING.charAt((i * 7 + i / 13) % 26));
+            if (i % 11 == 0) {
+                msg.append(' ');
+            }
+        }
+        Machine sequential = hiawathaMachine();
+        Machine parallel = hiawathaMachine();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for (int i = 0; i < 2; i += 1) {
+            assertEquals(sequential.convert(msg.toString()),
+                         parallel.convert(msg.toString(), pool));
+            assertEquals(settings(sequential), settings(parallel));
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testSnapshotRestore() {
+        Machine mach = hiawathaMachine();
+        Machine other = mach.copy();
+        MachineState start = mach.snapshot();
+        String first = mach.convert("FROM his shoulder Hiawatha");
+        MachineState middle = mach.snapshot();
+        mach.restore(start);
+        assertEquals(start, mach.snapshot());
+        assertEquals(first, mach.convert("FROM his shoulder Hiawatha"));
+        assertEquals(first, other.convert("FROM his shoulder Hiawatha"));
+        other.insertRotors(new String[] { "C", "GAMMA", "V", "II", "VI" });
+        other.restore(middle);
+        assertEquals(mach.convert("Took the camera of rosewood"),
+                     other.convert("Took the camera of rosewood"));
+        String before = settings(mach);
+        other.convert("Of a case of sandalwood");
+        assertEquals(before, settings(mach));
+    }
+
+    /** Return the conversion of C by M, stepping M and then passing C
+     *  through its plugboard PLUGBOARD and each of its rotors in turn. */
+    private int convertByRotors(Machine m, Permutation plugboard, int c) {
+        m.step();
+        Rotor[] rotors = m.selectRotors();
+        c = plugboard.permute(c);
+        for (int y = rotors.length - 1; y >= 0; y -= 1) {
+            c = rotors[y].convertForward(c);
+        }
+        for (int y = 1; y < rotors.length; y += 1) {
+            c = rotors[y].convertBackward(c);
+        }
+        return plugboard.permute(c);
+    }
+
+    @Test
+    public void testFusedTables() {
+        Machine mach = hiawathaMachine();
+        Machine reference = hiawathaMachine();
+        Permutation plugboard =
+            new Permutation("(HQ) (EX) (IP) (TR) (BY)", UPPER);
+        for (int i = 0; i < 2000; i += 1) {
+            if (i == 700) {
+                plugboard = new Permutation("(AZ) (MN)", UPPER);
+                mach.setPlugboard(plugboard);
+            } else if (i == 1200) {
+                mach.setRotors("QEVZ");
+                reference.setRotors("QEVZ");
+            } else if (i == 1500) {
+                mach.advanceBy(1000);
+                reference.advanceBy(1000);
+            }
+            int c = (i * 7) % 26;
+            assertEquals(msg("testFusedTables", "at %d", i),
+                         convertByRotors(reference, plugboard, c),
+                         mach.convert(c));
+        }
+    }
+
+    @Test
+    public void testKeystreamCache() {
+        String[][] orders = {
+            { "B", "BETA", "III", "IV", "I" },
+            { "C", "GAMMA", "VI", "VIII", "VII" },
+        };
+        long oneTable = 26L * 26 * 26 * 26 * Integer.BYTES;
+        for (long budget : new long[] { 0, oneTable, 4 * oneTable }) {
+            KeystreamCache cache = new KeystreamCache(budget);
+            Machine plain = hiawathaMachine();
+            Machine cached = hiawathaMachine();
+            cached.setKeystreamCache(cache);
+            for (int i = 0; i < 6; i += 1) {
+                for (Machine m : new Machine[] { plain, cached }) {
+                    m.insertRotors(orders[i % 2]);
+                    m.setRotors(i < 4 ? "AZQE" : "BZQE");
+                    m.setPlugboard(new Permutation(i < 2 ? "(AB)" : "(CD)",
+                                                   UPPER));
+                }
+                String msg = "FROM his shoulder Hiawatha Took the camera";
+                assertEquals(plain.convert(msg), cached.convert(msg));
+                assertEquals(settings(plain), settings(cached));
+            }
+            assertTrue(cache.size() <= budget);
+            assertEquals(budget == 0 ? 0 : budget == oneTable ? 1 : 4,
+                         cache.tables());
+        }
+    }
+
+    @Test
+    public void testInsertRotors() {
+        String[][] bad = {
+            { "B", "BETA", "III", "IV", "IX" },
+            { "B", "BETA", "III", "III", "I" },
+            { "BETA", "B", "III", "IV", "I" },
+            { "B", "C", "III", "IV", "I" },
+            { "B", "BETA", "III", "GAMMA", "I" },
+            { "B", "BETA", "III", "IV" },
+        };
+        Machine mach = hiawathaMachine();
+        for (String[] rotors : bad) {
+            try {
+                mach.insertRotors(rotors);
+                fail(String.join(" ", rotors) + " accepted");
+            } catch (EnigmaException excp) {
+                assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                             mach.copy().convert("FROM his shoulder "
+                                                 + "Hiawatha"));
+            }
+        }
+        mach.insertRotors(new String[] { "C", "GAMMA", "VI", "VIII", "II" });
+        mach.insertRotors(new String[] { "B", "BETA", "III", "IV", "I" });
+        mach.setRotors("AXLE");
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                     mach.convert("FROM his shoulder Hiawatha"));
+    }
+
+    @Test
+    public void testInsertRotorsAllocationFree() {
+        com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        Machine mach = navalMachine();
+        String[][] orders = {
+            { "B", "BETA", "III", "IV", "I" },
+            { "C", "GAMMA", "VI", "VIII", "II" },
+        };
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < 200000; i += 1) {
+            mach.insertRotors(orders[i % 2]);
+        }
+        long before = bean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 1000000; i += 1) {
+            mach.insertRotors(orders[i % 2]);
+        }
+        long allocated = bean.getThreadAllocatedBytes(thread) - before;
+        assertTrue("insertRotors allocated " + allocated + " bytes",
+                   allocated < 4096);
+    }
+
+    @Test
+    public void testConvertBatch() {
+        String msg = "FROM his shoulder Hiawatha Took the camera of rosewood";
+        msg = msg + msg + msg + msg + msg + msg + msg + msg;
+        Random random = new Random(7);
+        String[] settings = new String[Machine.BATCH_BLOCK + 44];
+        settings[0] = "AXLE";
+        settings[1] = "AZDU";
+        settings[2] = "AAEZ";
+        for (int m = 3; m < settings.length; m += 1) {
+            char[] setting = new char[4];
+            for (int x = 0; x < setting.length; x += 1) {
+                setting[x] = UPPER.toChar(random.nextInt(26));
+            }
+            settings[m] = new String(setting);
+        }
+        for (String[] order : new String[][] {
+                { "B", "BETA", "III", "IV", "I" },
+                { "C", "GAMMA", "VI", "VIII", "II" } }) {
+            Machine mach = hiawathaMachine();
+            mach.insertRotors(order);
+            mach.setRotors("QQQQ");
+            String[] batch = mach.convertBatch(msg, settings);
+            assertEquals("QQQQ", settings(mach).substring(1));
+            for (int m = 0; m < settings.length; m += 1) {
+                Machine single = mach.copy();
+                single.setRotors(settings[m]);
+                assertEquals(msg("testConvertBatch", "%s %s", order[2],
+                                 settings[m]),
+                             single.convert(msg), batch[m]);
+            }
+        }
+    }
+}
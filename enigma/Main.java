@@ -1,12 +1,15 @@
 package enigma;
 
-import java.io.File;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 import static enigma.EnigmaException.*;
 
 /** Enigma simulator.
@@ -17,14 +20,66 @@ public final class Main {
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
+    /** Size of the buffer into which input is read, in characters. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Size of the input buffer when message lines are converted in
+     *  parallel, in characters. */
+    static final int PARALLEL_BUFFER_SIZE = 1 << 20;
+
+    /** Largest TCP port number. */
+    static final int MAX_PORT = 65535;
+
     /** Source of input messages. */
-    private Scanner _input;
+    private BufferedReader _input;
 
-    /** Source of machine configuration. */
-    private Scanner _config;
+    /** The stream underlying _input, read directly when messages are
+     *  converted as bytes. */
+    private InputStream _inputStream;
+
+    /** Name of the machine configuration file. */
+    private String _configName;
 
     /** File for encoded/decoded messages. */
-    private PrintStream _output;
+    private GroupWriter _output;
+
+    /** The stream underlying _output, written directly when messages are
+     *  converted as bytes. */
+    private OutputStream _outputStream;
+
+    /** True iff _input should be closed when processing is done. */
+    private boolean _closeInput;
+
+    /** True iff _output should be closed when processing is done. */
+    private boolean _closeOutput;
+
+    /** True iff the input and output files are to be memory-mapped. */
+    private boolean _mapped;
+
+    /** Names of the input and output files, when memory-mapped. */
+    private String _inputName, _outputName;
+
+    /** Number of threads converting independent sections of the input,
+     *  or 0 to convert the input sequentially. */
+    private int _threads;
+
+    /** Threads among which the conversion of each block of a message
+     *  line is divided, or null to convert each block sequentially. */
+    private ForkJoinPool _pool;
+
+    /** Keystream tables used by the machine, or null if none. */
+    private KeystreamCache _keystreamCache;
+
+    /** True iff requests are to be served rather than the input
+     *  processed. */
+    private boolean _serve;
+
+    /** Port on which requests are served, or 0 to serve the input. */
+    private int _port;
+
+    /** True iff the metrics are to be printed on the standard error after
+     *  processing. */
+    private boolean _dumpMetrics;
 
     /** Process a sequence of encryptions and decryptions, as
      *  specified by ARGS, where 1 <= ARGS.length <= 3.
@@ -34,7 +89,32 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *
+     *  The file arguments may be preceded by options:
+     *    --mapped  Memory-map the input and output files, which must both
+     *              be given, instead of reading and writing them as
+     *              streams.  The alphabet must consist of ASCII
+     *              characters.
+     *    --parallel[=N]  Convert the sections of input following each
+     *              settings line concurrently, using N threads (by
+     *              default, one per available processor).
+     *    --parallel-messages[=N]  Divide the conversion of long message
+     *              lines among N threads (by default, one per available
+     *              processor).
+     *    --keystream-cache[=MB]  Precompute the substitution made at
+     *              every setting of the moving rotors for each rotor
+     *              order and plugboard used, keeping up to MB megabytes
+     *              (by default, 64) of such tables.
+     *    --serve[=PORT]  Instead of processing the input as a whole,
+     *              answer requests (see Server) read from the input, or
+     *              if PORT is given, from connections to that port on the
+     *              loopback interface, with one worker per processor (or
+     *              N workers, with --parallel=N).
+     *    --metrics  Print the metrics (see Metrics) as JSON on the
+     *              standard error when done.  Metrics are kept only when
+     *              the system property enigma.metrics is true, in which
+     *              case they are also published over JMX. */
     public static void main(String... args) {
         try {
             new Main(args).process();
@@ -47,36 +127,148 @@ public final class Main {
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
+        int first;
+        for (first = 0; first < args.length; first += 1) {
+            if (!args[first].startsWith("--")) {
+                break;
+            }
+            setOption(args[first]);
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
+        if (Metrics.ENABLED) {
+            Metrics.register();
+        }
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
-        _config = getInput(args[0]);
-        if (args.length > 1) {
-            _input = getInput(args[1]);
+        _configName = args[0];
+        if (_serve && (_mapped || _pool != null)) {
+            throw error("--serve cannot be combined with --mapped or "
+                        + "--parallel-messages");
+        } else if (_mapped) {
+            if (_threads > 0 || _pool != null) {
+                throw error("--mapped cannot be combined with --parallel");
+            }
+            if (args.length < 3) {
+                throw error("--mapped needs input and output files");
+            }
+            _inputName = args[1];
+            _outputName = args[2];
+        } else if (args.length > 1) {
+            _inputStream = getInputStream(args[1]);
+            _closeInput = true;
         } else {
-            _input = new Scanner(System.in);
+            _inputStream = System.in;
         }
 
-        if (args.length > 2) {
-            _output = getOutput(args[2]);
+        if (_mapped) {
+            return;
+        } else if (args.length > 2) {
+            _outputStream = getOutputStream(args[2]);
+            _closeOutput = true;
         } else {
-            _output = System.out;
+            _outputStream = System.out;
+        }
+        _input = new BufferedReader(new InputStreamReader(_inputStream),
+                                    BUFFER_SIZE);
+        _output = new GroupWriter(new OutputStreamWriter(_outputStream));
+    }
+
+    /** Record the command-line option OPTION (see comment on main). */
+    private void setOption(String option) {
+        switch (option) {
+        case "--mapped":
+            _mapped = true;
+            break;
+        case "--parallel":
+            _threads = Runtime.getRuntime().availableProcessors();
+            break;
+        case "--parallel-messages":
+            _pool = new ForkJoinPool();
+            break;
+        case "--serve":
+            _serve = true;
+            break;
+        case "--metrics":
+            if (!Metrics.ENABLED) {
+                throw error("--metrics needs -Denigma.metrics=true");
+            }
+            _dumpMetrics = true;
+            break;
+        case "--keystream-cache":
+            _keystreamCache =
+                new KeystreamCache(KeystreamCache.DEFAULT_BUDGET);
+            break;
+        default:
+            if (option.startsWith("--parallel=")) {
+                _threads = threadCount(option);
+            } else if (option.startsWith("--parallel-messages=")) {
+                _pool = new ForkJoinPool(threadCount(option));
+            } else if (option.startsWith("--serve=")) {
+                _serve = true;
+                _port = portNumber(option);
+            } else if (option.startsWith("--keystream-cache=")) {
+                _keystreamCache = new KeystreamCache(cacheSize(option));
+            } else {
+                throw error("unknown option %s", option);
+            }
+        }
+    }
+
+    /** Return the thread count given after the "=" in OPTION. */
+    private int threadCount(String option) {
+        int count = optionValue(option);
+        if (count <= 0) {
+            throw error("bad thread count in %s", option);
+        }
+        return count;
+    }
+
+    /** Return the port number given after the "=" in OPTION. */
+    private int portNumber(String option) {
+        int port = optionValue(option);
+        if (port <= 0 || port > MAX_PORT) {
+            throw error("bad port number in %s (must be 1 to %d)", option,
+                        MAX_PORT);
+        }
+        return port;
+    }
+
+    /** Return the keystream cache size, in bytes, given in megabytes
+     *  after the "=" in OPTION. */
+    private long cacheSize(String option) {
+        int megabytes = optionValue(option);
+        if (megabytes <= 0) {
+            throw error("bad cache size in %s (must be a positive number "
+                        + "of megabytes)", option);
+        }
+        return (long) megabytes << 20;
+    }
+
+    /** Return the number given after the "=" in OPTION, or -1 if there is
+     *  none. */
+    private static int optionValue(String option) {
+        try {
+            return Integer.parseInt(option.substring(option.indexOf('=')
+                                                     + 1));
+        } catch (NumberFormatException excp) {
+            return -1;
         }
     }
 
-    /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
+    /** Return an InputStream reading from the file named NAME. */
+    private InputStream getInputStream(String name) {
         try {
-            return new Scanner(new File(name));
+            return new FileInputStream(name);
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Return an OutputStream writing to the file named NAME. */
+    private OutputStream getOutputStream(String name) {
         try {
-            return new PrintStream(new File(name));
+            return new FileOutputStream(name);
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
@@ -84,107 +276,169 @@ public final class Main {
 
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
-     *  results to _output. */
-    private void process() {
-        Machine enigma = readConfig();
-        String[] certainRotors = new String[enigma.numRotors()];
-        while (_input.hasNextLine()) {
-            if (_input.hasNext("\\*")) {
-                String line = _input.nextLine();
-                if (line.trim().equals("")) {
-                    _output.append("\n");
-                    continue;
-                }
-                Scanner scanner = new Scanner(line);
-                scanner.next();
-                for (int x = 0; x < enigma.numRotors(); x++) {
-                    String rotor = scanner.next().toUpperCase();
-                    certainRotors[x] = rotor;
-                }
-                enigma.insertRotors(certainRotors);
-                String setting = scanner.next();
-                if (setting.length() != enigma.numRotors() - 1) {
-                    throw new EnigmaException(
-                            "Settings and rotors do not match");
-                }
-                enigma.setRotors(setting);
-                if (scanner.hasNext()) {
-                    enigma.setPlugboard(new Permutation(scanner.nextLine(),
-                            _alphabet));
-                }
-            } else {
-                String message = _input.nextLine();
-                printMessageLine(enigma.convert(message));
+     *  results to _output.  When the alphabet and the default charset
+     *  allow, the underlying streams are processed as bytes instead. */
+    void process() {
+        long start = Metrics.now();
+        try {
+            process(readConfig());
+        } finally {
+            if (_closeInput) {
+                closeInput();
+            }
+            if (Metrics.ENABLED) {
+                Metrics.PROCESS_TIME.recordSince(start);
+            }
+            if (_dumpMetrics) {
+                System.err.println(Metrics.json());
             }
         }
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
+    /** Close _input, and with it the file it reads. */
+    private void closeInput() {
         try {
-            int rotors = 0;
-            int pawls = 0;
-            if (_config.hasNext()) {
-                String s = _config.nextLine();
-                _alphabet = new CharacterRange(s.charAt(0),
-                        s.charAt(s.length() - 1));
-            }
-            if (_config.hasNext()) {
-                rotors = _config.nextInt();
-                pawls = _config.nextInt();
+            _input.close();
+        } catch (IOException excp) {
+            throw error("could not close input: %s", excp.getMessage());
+        }
+    }
+
+    /** Apply ENIGMA to the messages in _input as for process(). */
+    private void process(Machine enigma) {
+        enigma.setKeystreamCache(_keystreamCache);
+        if (_serve) {
+            serve(enigma);
+            return;
+        } else if (_mapped) {
+            new MappedProcessor(this, enigma)
+                .process(_inputName, _outputName);
+            return;
+        }
+        try {
+            if (_threads > 0) {
+                new ParallelProcessor(this, enigma, _alphabet, _threads)
+                    .process(_input, _output);
+            } else if (_pool == null && ByteTable.suits(_alphabet)) {
+                new ByteProcessor(this, enigma,
+                                  new ByteGroupWriter(_outputStream,
+                                                      BUFFER_SIZE))
+                    .process(_inputStream);
+            } else {
+                processStream(enigma);
             }
-            Collection<Rotor> allRotors = new ArrayList<Rotor>();
-            while (_config.hasNext()) {
-                ((ArrayList<Rotor>) allRotors).add(readRotor());
+        } finally {
+            if (_closeOutput) {
+                _output.close();
+            } else {
+                _output.flush();
             }
-            return new Machine(_alphabet, rotors, pawls, allRotors);
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
         }
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
+    /** Answer requests with copies of ENIGMA, from _input or from
+     *  connections to _port, until the end of _input or the failure of the
+     *  server socket. */
+    private void serve(Machine enigma) {
+        int threads = _threads > 0 ? _threads
+            : Runtime.getRuntime().availableProcessors();
+        Server server = new Server(this, enigma, threads);
         try {
-            String name = _config.next().toUpperCase();
-            String toMove = _config.next();
-            String perm = _config.nextLine();
-            Permutation permute = new Permutation(perm, _alphabet);
-            if (toMove.length() > 1) {
-                return new MovingRotor(name, permute, toMove.substring(1));
-            } else if (toMove.charAt(0) == 'N') {
-                return new FixedRotor(name, permute);
+            if (_port > 0) {
+                server.listen(_port);
             } else {
-                if (!permute.derangement()) {
-                    perm += _config.nextLine();
-                    permute = new Permutation(perm, _alphabet);
-                }
-                return new Reflector(name, permute);
+                server.serve(_input, _output);
+            }
+        } finally {
+            server.shutdown();
+            if (_closeOutput) {
+                _output.close();
             }
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
         }
     }
 
+    /** Apply ENIGMA to the messages in _input, sending the results to
+     *  _output.  The input is read in blocks and scanned a character at a
+     *  time (see CharProcessor). */
+    private void processStream(Machine enigma) {
+        int size = _pool == null ? BUFFER_SIZE : PARALLEL_BUFFER_SIZE;
+        new CharProcessor(this, enigma, _output, _pool, size)
+            .process(_input);
+    }
+
+    /** Return an Enigma machine configured from the contents of configuration
+     *  file _configName, which is parsed only if it has changed since it
+     *  was last read. */
+    Machine readConfig() {
+        long start = Metrics.now();
+        Configuration config = Configuration.load(_configName);
+        _alphabet = config.alphabet();
+        Machine result = config.machine();
+        if (Metrics.ENABLED) {
+            Metrics.CONFIG_TIME.recordSince(start);
+        }
+        return result;
+    }
+
     /** Set M according to the specification given on SETTINGS,
      *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
+    void setUp(Machine M, String settings) {
+        if (Metrics.ENABLED) {
+            Metrics.SETTINGS_LINES.increment();
+        }
+        int numRotors = M.numRotors();
+        String[] fields = settingsFields(M, settings);
+        if (fields.length < numRotors + 2) {
+            throw error("incomplete settings line: %s", settings);
+        }
+        String[] rotors = new String[numRotors];
+        for (int x = 0; x < numRotors; x += 1) {
+            rotors[x] = fields[x + 1].toUpperCase();
+        }
+        M.insertRotors(rotors);
+        String setting = fields[numRotors + 1];
+        if (setting.length() != numRotors - 1) {
+            throw new EnigmaException("Settings and rotors do not match");
+        }
+        M.setRotors(setting);
+        if (fields.length > numRotors + 2) {
+            M.setPlugboard(Permutation.intern(fields[numRotors + 2],
+                                              _alphabet));
+        }
     }
 
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        String finalMsg = "";
-        if (msg.length() != 0) {
-            finalMsg += msg.charAt(0);
-            for (int i = 1; i < msg.length(); i++) {
-                if (i % 5 == 0) {
-                    finalMsg += " ";
-                }
-                finalMsg += msg.charAt(i);
+    /** Return the plugboard cycles given on SETTINGS, a settings line for
+     *  M, or null if there are none. */
+    String plugboardCycles(Machine M, String settings) {
+        String[] fields = settingsFields(M, settings);
+        return fields.length > M.numRotors() + 2
+            ? fields[M.numRotors() + 2] : null;
+    }
+
+    /** Return the fields of SETTINGS, a settings line for M: the "*",
+     *  the rotor names, the rotor settings, and the plugboard cycles,
+     *  if present, as a single field. */
+    private String[] settingsFields(Machine M, String settings) {
+        return settings.trim().split("\\s+", M.numRotors() + 3);
+    }
+
+    /** Return true iff LINE is a settings line: one whose first token is
+     *  "*". */
+    static boolean isSettingsLine(String line) {
+        int i;
+        for (i = 0; i < line.length(); i += 1) {
+            if (!Machine.isSpace(line.charAt(i))) {
+                break;
             }
         }
-        _output.append(finalMsg + "\n");
+        return i < line.length() && line.charAt(i) == '*'
+            && (i + 1 == line.length() || Machine.isSpace(line.charAt(i + 1)));
+    }
+
+    /** Print MSG in groups of five (except that the last group may
+     *  have fewer letters). */
+    void printMessageLine(String msg) {
+        _output.write(msg);
+        _output.endLine();
     }
 }
@@ -0,0 +1,340 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Random;
+
+/** The suite of JUnit tests running input through each of the ways Main
+ *  may process it, comparing the results with a line-at-a-time
+ *  reference.
+ *  @author Yohan Yan
+ */
+public class MainTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** The naval machine. */
+    static final String NAVAL =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n"
+        + " 5 3\n"
+        + " I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME     (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " III MV    (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " IV MJ     (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + " V MZ      (AVOLDRWFIUQ)(BZKSMNHYC) (EGTJPX)\n"
+        + " VI MZM    (AJQDVLEOZWIYTS) (CGMNHFUX) (BPRK)\n"
+        + " VII MZM   (ANOUPFRIMBZTLWKSVEGCJYDHXQ)\n"
+        + " VIII MZM  (AFLSETWUNDHOZVICQ) (BKJ) (GXY) (MPR)\n"
+        + " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " Gamma N   (AFNIRLBSQWVXGUZDKMTPCOYJHE)\n"
+        + " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "           (RX) (SZ) (TV)\n"
+        + " C R       (AR) (BD) (CO) (EJ) (FN) (GT) (HK) (IV) (LM) (PW)\n"
+        + "           (QZ) (SX) (UY)\n";
+
+    /** A small machine whose alphabet includes "*". */
+    static final String STAR =
+        "ABCDE*\n"
+        + " 3 1\n"
+        + " M MA (A*E) (BD)\n"
+        + " F N  (ABC)\n"
+        + " R R  (AB) (CD) (E*)\n";
+
+    /** A small machine whose alphabet is not ASCII, so that its input is
+     *  decoded into characters. */
+    static final String GREEK =
+        "\u03b1\u03b3\u03b2\u03b4\u03b5\u03b6\n"
+        + " 3 1\n"
+        + " M M\u03b1 (\u03b1\u03b6\u03b5) (\u03b2\u03b4)\n"
+        + " F N  (\u03b1\u03b2\u03b3)\n"
+        + " R R  (\u03b1\u03b2) (\u03b3\u03b4) (\u03b5\u03b6)\n";
+
+    /** Settings lines for the naval machine, in various forms, some
+     *  without plugboards. */
+    static final String[] NAVAL_SETTINGS = {
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        "  * c gamma vi viii ii QQQQ",
+        "*\tB Beta V I II ZZZZ (AB)(CD)\t",
+        "* C Beta VII III IV AAEZ",
+        " \t*  B Gamma II VI VIII MUDD (QW) (ER) (TY) (UI) (OP)",
+    };
+
+    /** Line terminators. */
+    static final String[] TERMINATORS = { "\n", "\r\n", "\r" };
+
+    /** The options selecting each way in which Main may process its
+     *  input. */
+    static final String[][] MODES = {
+        {},
+        { "--parallel=3" },
+        { "--parallel-messages=2" },
+        { "--mapped" },
+    };
+
+    /** Return a file holding TEXT in the default charset. */
+    static File file(String text) throws IOException {
+        File result = File.createTempFile("enigma", ".txt");
+        result.deleteOnExit();
+        Files.write(result.toPath(), text.getBytes());
+        return result;
+    }
+
+    /** Return the result of applying the machine described by CONFIG to
+     *  INPUT a line at a time, as specified: each settings line sets up
+     *  the machine, and each other line is converted and printed in groups
+     *  of five. */
+    static String reference(String config, String input) {
+        Configuration conf = Configuration.parse(config);
+        Machine mach = conf.machine();
+        String[] lines = input.split("\r\n|\r|\n", -1);
+        int n = lines.length;
+        if (lines[n - 1].isEmpty()) {
+            n -= 1;
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            String line = lines[i].trim();
+            if (line.startsWith("*") && (line.length() == 1
+                         || Character.isWhitespace(line.charAt(1)))) {
+                String[] fields = line.split("\\s+", mach.numRotors() + 3);
+                String[] rotors = new String[mach.numRotors()];
+                for (int x = 0; x < rotors.length; x += 1) {
+                    rotors[x] = fields[x + 1].toUpperCase();
+                }
+                mach.insertRotors(rotors);
+                mach.setRotors(fields[rotors.length + 1]);
+                if (fields.length > rotors.length + 2) {
+                    mach.setPlugboard(new Permutation(fields[rotors.length
+                                                             + 2],
+                                                      conf.alphabet()));
+                }
+                continue;
+            }
+            String msg = line.isEmpty() ? "" : mach.convert(lines[i]);
+            for (int k = 0; k < msg.length(); k += GroupWriter.GROUP) {
+                if (k > 0) {
+                    result.append(' ');
+                }
+                result.append(msg, k,
+                              Math.min(k + GroupWriter.GROUP, msg.length()));
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Check that each way of processing INPUT with the machine described
+     *  by CONFIG gives the reference result, memory-mapping the files too
+     *  if MAPPED. */
+    static void check(String config, String input, boolean mapped)
+        throws IOException {
+        String expected = reference(config, input);
+        String conf = file(config).getPath(), in = file(input).getPath();
+        for (String[] mode : MODES) {
+            if (!mapped && mode.length > 0 && mode[0].equals("--mapped")) {
+                continue;
+            }
+            File out = file("");
+            String[] args = new String[mode.length + 3];
+            System.arraycopy(mode, 0, args, 0, mode.length);
+            args[mode.length] = conf;
+            args[mode.length + 1] = in;
+            args[mode.length + 2] = out.getPath();
+            new Main(args).process();
+            String result = new String(Files.readAllBytes(out.toPath()));
+            assertEquals(String.join(" ", mode), expected, result);
+        }
+    }
+
+    /** Append to INPUT a message line of length LEN, consisting of
+     *  letters in both cases and whitespace, chosen using RANDOM. */
+    static void message(StringBuilder input, int len, Random random) {
+        for (int i = 0; i < len; i += 1) {
+            int c = random.nextInt(60);
+            input.append(c < 26 ? (char) ('A' + c)
+                         : c < 52 ? (char) ('a' + c - 26)
+                         : c < 58 ? ' ' : '\t');
+        }
+    }
+
+    /** Append to INPUT a message line ending in "\r\n" such that the "\r"
+     *  is the last character of the first BLOCK characters of INPUT and
+     *  the "\n" is the first of the next, so that the two are read in
+     *  different blocks.  INPUT must end with a line terminator. */
+    static void splitTerminator(StringBuilder input, int block,
+                                Random random) {
+        int len = block - 1 - input.length() % block;
+        message(input, len, random);
+        input.append("\r\n");
+    }
+
+    /** Return a Main reading the configuration CONFIG, and the machine it
+     *  configures, as MACHINE[0]. */
+    static Main main(String config, Machine[] machine) throws IOException {
+        Main result = new Main(new String[] { file(config).getPath() });
+        machine[0] = result.readConfig();
+        return result;
+    }
+
+    /** Short input exercising the line grammar. */
+    static final String GRAMMAR =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\r\n"
+        + "FROM his shoulder\tHiawatha\r\r\n \t\n"
+        + "  *\tc gamma vi viii ii QQQQ\rTook the camera of rosewood\n"
+        + "*  B Beta V I II ZZZZ\n\nMade of sliding";
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testProcessModes() throws IOException {
+        Random random = new Random(61);
+        StringBuilder input = new StringBuilder();
+        input.append(NAVAL_SETTINGS[0]).append("\r\n");
+        while (input.length() < 3 * Main.BUFFER_SIZE) {
+            int kind = random.nextInt(20);
+            if (kind < 2) {
+                input.append(NAVAL_SETTINGS[random.nextInt(
+                                 NAVAL_SETTINGS.length)]);
+            } else if (kind == 2) {
+                input.append("");
+            } else if (kind == 3) {
+                input.append(" \t  ");
+            } else if (kind == 4) {
+                message(input, Main.BUFFER_SIZE + random.nextInt(1000),
+                        random);
+            } else {
+                message(input, random.nextInt(200), random);
+            }
+            input.append(TERMINATORS[random.nextInt(TERMINATORS.length)]);
+        }
+        splitTerminator(input, Main.BUFFER_SIZE, random);
+        input.append(NAVAL_SETTINGS[1]).append("\r\n");
+        splitTerminator(input, Main.BUFFER_SIZE, random);
+        message(input, 10000, random);
+        splitTerminator(input, Main.PARALLEL_BUFFER_SIZE, random);
+        message(input, 77, random);
+        check(NAVAL, input.toString(), true);
+    }
+
+    @Test
+    public void testByteBlocks() throws IOException {
+        String expected = reference(NAVAL, GRAMMAR);
+        byte[] input = GRAMMAR.getBytes();
+        for (int split = 0; split <= input.length; split += 1) {
+            Machine[] mach = new Machine[1];
+            Main main = main(NAVAL, mach);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteGroupWriter output = new ByteGroupWriter(out, 7);
+            ByteProcessor bytes = new ByteProcessor(main, mach[0], output);
+            bytes.scan(ByteBuffer.wrap(input, 0, split).slice());
+            bytes.scan(ByteBuffer.wrap(input, split, input.length - split)
+                       .slice());
+            bytes.finish();
+            output.flush();
+            assertEquals("split at " + split, expected, out.toString());
+        }
+    }
+
+    @Test
+    public void testCharBlocks() throws IOException {
+        String expected = reference(NAVAL, GRAMMAR);
+        for (int size = 1; size <= 12; size += 1) {
+            Machine[] mach = new Machine[1];
+            Main main = main(NAVAL, mach);
+            StringWriter out = new StringWriter();
+            GroupWriter output = new GroupWriter(out, 7);
+            new CharProcessor(main, mach[0], output, null, size)
+                .process(new StringReader(GRAMMAR));
+            output.flush();
+            assertEquals("blocks of " + size, expected, out.toString());
+        }
+    }
+
+    @Test
+    public void testMappedWindows() throws IOException {
+        Random random = new Random(7);
+        StringBuilder input = new StringBuilder(GRAMMAR).append('\n');
+        for (int k = 0; k < 20; k += 1) {
+            splitTerminator(input, 4099, random);
+            input.append(NAVAL_SETTINGS[k % NAVAL_SETTINGS.length])
+                .append('\n');
+        }
+        message(input, 20000, random);
+        String in = file(input.toString()).getPath();
+        for (long window : new long[] { 1, 1000, 4099 }) {
+            Machine[] mach = new Machine[1];
+            Main main = main(NAVAL, mach);
+            File out = file("");
+            new MappedProcessor(main, mach[0], 4099, window)
+                .process(in, out.getPath());
+            assertEquals("output window " + window,
+                         reference(NAVAL, input.toString()),
+                         new String(Files.readAllBytes(out.toPath())));
+        }
+    }
+
+    @Test
+    public void testBlankLines() throws IOException {
+        check(NAVAL, "\n \n" + NAVAL_SETTINGS[0] + "\n\n\t\n"
+              + "FROM his shoulder Hiawatha\r\n \r\n\r\r\n", true);
+    }
+
+    @Test
+    public void testUnterminated() throws IOException {
+        check(NAVAL, NAVAL_SETTINGS[0] + "\nTook the camera", true);
+        check(NAVAL, NAVAL_SETTINGS[2] + "\r", true);
+    }
+
+    @Test
+    public void testStarInMessage() throws IOException {
+        check(STAR, "* R F M AB\n*ABC\nA*B  *\n **\n\t*\tR F M EC\n**\n",
+              true);
+        check(STAR, "* R F M **\r\nAB*\r\n* R F M BD\r\n*E*E*E*E*E*E", true);
+    }
+
+    @Test
+    public void testNonAscii() throws IOException {
+        if (!Charset.defaultCharset().newEncoder().canEncode(GREEK)) {
+            return;
+        }
+        check(GREEK, "* R F M \u03b1\u03b2\n"
+              + "\u03b1\u03b2\u03b3 \u03b4\u03b5\u03b6\u03b6\u03b6\r\n"
+              + "  \u03b2\u03b2\u03b2\u03b2\u03b2\u03b2\n"
+              + "*\tR F M \u03b6\u03b3 (\u03b1\u03b2)\n"
+              + "\u03b1\u03b1\u03b1", false);
+    }
+
+    @Test
+    public void testBadOptionValues() throws IOException {
+        String conf = file(NAVAL).getPath();
+        String[] options = {
+            "--parallel=0", "--parallel-messages=x", "--serve=0",
+            "--serve=65536", "--keystream-cache=-1",
+        };
+        for (String option : options) {
+            try {
+                new Main(new String[] { option, conf });
+                fail(option);
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage(),
+                           excp.getMessage().startsWith("bad "));
+            }
+        }
+    }
+
+}
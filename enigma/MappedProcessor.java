@@ -0,0 +1,125 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.EnigmaException.*;
+
+/** Applies an Enigma machine to a file of settings and message lines by
+ *  memory-mapping the input and output files, for alphabets whose
+ *  characters are all ASCII and so occupy one byte each.  Each mapped
+ *  region of the input is scanned and converted in place by a
+ *  ByteProcessor, which formats its output directly into mapped regions
+ *  of the output file, with no read or write calls, no copies of the
+ *  input or output through the heap, and no charset decoding.
+ *  @author Yohan Yan
+ */
+class MappedProcessor {
+
+    /** Size of the input region mapped at one time, in bytes. */
+    static final long INPUT_WINDOW = 1L << 28;
+
+    /** Size of the output region mapped at one time, in bytes. */
+    static final long OUTPUT_WINDOW = 1L << 26;
+
+    /** A processor that converts messages with ENIGMA and passes settings
+     *  lines to MAIN. */
+    MappedProcessor(Main main, Machine enigma) {
+        this(main, enigma, INPUT_WINDOW, OUTPUT_WINDOW);
+    }
+
+    /** A processor that converts messages with ENIGMA and passes settings
+     *  lines to MAIN, mapping INWINDOW bytes of the input and OUTWINDOW
+     *  bytes of the output at a time. */
+    MappedProcessor(Main main, Machine enigma, long inWindow,
+                    long outWindow) {
+        _main = main;
+        _enigma = enigma;
+        _enigma.byteTable();
+        _inWindow = inWindow;
+        _outWindow = Math.max(outWindow, GroupedOutput.GROUP);
+    }
+
+    /** Process the file named INPUT, writing the results to the file
+     *  named OUTPUT. */
+    void process(String input, String output) {
+        try (FileChannel in = FileChannel.open(Paths.get(input),
+                                               StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(Paths.get(output),
+                                                StandardOpenOption.READ,
+                                                StandardOpenOption.WRITE,
+                                                StandardOpenOption.CREATE,
+                                                StandardOpenOption
+                                                .TRUNCATE_EXISTING)) {
+            _out = out;
+            MappedOutput mapped = new MappedOutput();
+            ByteProcessor bytes = new ByteProcessor(_main, _enigma, mapped);
+            try {
+                long size = in.size();
+                for (long pos = 0; pos < size; pos += _inWindow) {
+                    long len = Math.min(_inWindow, size - pos);
+                    bytes.scan(in.map(FileChannel.MapMode.READ_ONLY, pos,
+                                      len));
+                }
+                bytes.finish();
+            } finally {
+                mapped.flush();
+                out.truncate(_written);
+            }
+        } catch (IOException excp) {
+            throw error("could not process %s: %s", input,
+                        excp.getMessage());
+        }
+    }
+
+    /** A ByteGroupWriter formatting its output into successive mapped
+     *  regions of _out. */
+    private class MappedOutput extends ByteGroupWriter {
+
+        /** A writer starting with an empty region. */
+        MappedOutput() {
+            super(ByteBuffer.allocate(0));
+        }
+
+        /** Account for the output in BUFFER, the current region, and
+         *  return the rest of the region if it has room for a group (as
+         *  when flushing), and otherwise the next region. */
+        @Override
+        ByteBuffer drain(ByteBuffer buffer) {
+            _written += buffer.position();
+            if (Metrics.ENABLED) {
+                Metrics.OUTPUT_WRITTEN.add(buffer.position());
+            }
+            if (buffer.remaining() >= GroupedOutput.GROUP) {
+                return buffer.slice();
+            }
+            try {
+                return _out.map(FileChannel.MapMode.READ_WRITE, _written,
+                                _outWindow);
+            } catch (IOException excp) {
+                throw error("could not write output: %s",
+                            excp.getMessage());
+            }
+        }
+    }
+
+    /** Receives settings lines. */
+    private final Main _main;
+
+    /** Machine converting the messages. */
+    private final Machine _enigma;
+
+    /** Sizes of the regions of the input and output mapped at one time,
+     *  in bytes. */
+    private final long _inWindow, _outWindow;
+
+    /** The output file. */
+    private FileChannel _out;
+
+    /** Number of bytes written to the output file. */
+    private long _written;
+
+}
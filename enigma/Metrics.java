@@ -0,0 +1,286 @@
+package enigma;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import static enigma.EnigmaException.*;
+
+/** Counters and histograms of where the simulator spends its time, kept
+ *  only when the system property enigma.metrics is true.  Every update
+ *  is guarded by ENABLED, a constant, so that when metrics are off the
+ *  JIT removes the updates entirely.  Counters are LongAdders, and each
+ *  histogram counts values in buckets by powers of two, so that updates
+ *  from many threads do not contend.
+ *
+ *  Characters are counted by Machine's bulk conversion methods (not by
+ *  convert(int) alone), and double steps by step() (not by advanceBy).
+ *  The metrics can be dumped as JSON, or read over JMX once registered.
+ *  @author Yohan Yan
+ */
+final class Metrics {
+
+    /** True iff metrics are kept. */
+    static final boolean ENABLED = Boolean.getBoolean("enigma.metrics");
+
+    /** Name under which the metrics are registered with JMX. */
+    static final String OBJECT_NAME = "enigma:type=Metrics";
+
+    /** Characters converted. */
+    static final LongAdder CHARS_CONVERTED = new LongAdder();
+
+    /** Double steps of middle rotors. */
+    static final LongAdder DOUBLE_STEPS = new LongAdder();
+
+    /** Calls to Machine.insertRotors. */
+    static final LongAdder ROTOR_INSERTIONS = new LongAdder();
+
+    /** Settings lines applied. */
+    static final LongAdder SETTINGS_LINES = new LongAdder();
+
+    /** Configuration files parsed. */
+    static final LongAdder CONFIG_PARSES = new LongAdder();
+
+    /** Configurations found in the cache. */
+    static final LongAdder CONFIG_CACHE_HITS = new LongAdder();
+
+    /** Permutations found by Permutation.intern. */
+    static final LongAdder PERMUTATION_CACHE_HITS = new LongAdder();
+
+    /** Characters or bytes of output passed to the underlying streams. */
+    static final LongAdder OUTPUT_WRITTEN = new LongAdder();
+
+    /** Time to read a configuration, in nanoseconds. */
+    static final Histogram CONFIG_TIME = new Histogram();
+
+    /** Time spent converting blocks of message text, in nanoseconds. */
+    static final Histogram CONVERT_TIME = new Histogram();
+
+    /** Time spent formatting blocks of converted text into groups, in
+     *  nanoseconds. */
+    static final Histogram FORMAT_TIME = new Histogram();
+
+    /** Time spent writing blocks of output, in nanoseconds. */
+    static final Histogram WRITE_TIME = new Histogram();
+
+    /** Time for Main.process as a whole, in nanoseconds. */
+    static final Histogram PROCESS_TIME = new Histogram();
+
+    /** Time from receipt to completion of server requests, in
+     *  nanoseconds. */
+    static final Histogram REQUEST_TIME = new Histogram();
+
+    /** Return the current time in nanoseconds if metrics are kept, and
+     *  otherwise 0. */
+    static long now() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /** Return all counters and histograms as a JSON object. */
+    static String json() {
+        StringBuilder result = new StringBuilder("{\"enabled\":");
+        result.append(ENABLED).append(",\"counters\":{");
+        for (int i = 0; i < COUNTERS.length; i += 1) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append('"').append(COUNTER_NAMES[i]).append("\":")
+                .append(COUNTERS[i].sum());
+        }
+        result.append("},\"histograms\":{");
+        for (int i = 0; i < HISTOGRAMS.length; i += 1) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append('"').append(HISTOGRAM_NAMES[i]).append("\":");
+            HISTOGRAMS[i].json(result);
+        }
+        return result.append("}}").toString();
+    }
+
+    /** Set all counters and histograms to zero. */
+    static void reset() {
+        for (LongAdder counter : COUNTERS) {
+            counter.reset();
+        }
+        for (Histogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+    }
+
+    /** Publish the metrics over JMX as OBJECT_NAME, if they are not
+     *  already published. */
+    static synchronized void register() {
+        if (_registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(new StandardMBean(new Bean(),
+                                                 MetricsMBean.class),
+                               new ObjectName(OBJECT_NAME));
+            _registered = true;
+        } catch (JMException excp) {
+            throw error("could not register metrics: %s",
+                        excp.getMessage());
+        }
+    }
+
+    /** A distribution of non-negative values, counted in buckets by
+     *  powers of two: bucket K counts the values V with 2^(K-1) <= V <
+     *  2^K (bucket 0 counts zeros, and the last bucket has no upper
+     *  bound). */
+    static final class Histogram {
+
+        /** An empty histogram. */
+        Histogram() {
+            for (int k = 0; k < _buckets.length; k += 1) {
+                _buckets[k] = new LongAdder();
+            }
+        }
+
+        /** Count VALUE, treating negative values as 0. */
+        void record(long value) {
+            value = Math.max(value, 0);
+            _buckets[Long.SIZE - Long.numberOfLeadingZeros(value)]
+                .increment();
+            _sum.add(value);
+            _max.accumulateAndGet(value, Math::max);
+        }
+
+        /** Count the time elapsed since START, as returned by now(), and
+         *  return the current time. */
+        long recordSince(long start) {
+            long now = System.nanoTime();
+            record(now - start);
+            return now;
+        }
+
+        /** Return the number of values counted. */
+        long count() {
+            long result = 0;
+            for (LongAdder bucket : _buckets) {
+                result += bucket.sum();
+            }
+            return result;
+        }
+
+        /** Return the sum of the values counted. */
+        long sum() {
+            return _sum.sum();
+        }
+
+        /** Return the largest value counted, or 0. */
+        long max() {
+            return _max.get();
+        }
+
+        /** Set my counts to zero. */
+        void reset() {
+            for (LongAdder bucket : _buckets) {
+                bucket.reset();
+            }
+            _sum.reset();
+            _max.set(0);
+        }
+
+        /** Append me to OUT as a JSON object giving my count, sum, and
+         *  maximum, and the counts of my non-empty buckets, each keyed by
+         *  the bucket's upper bound. */
+        void json(StringBuilder out) {
+            out.append("{\"count\":").append(count())
+                .append(",\"sum\":").append(sum())
+                .append(",\"max\":").append(max())
+                .append(",\"buckets\":{");
+            boolean first = true;
+            for (int k = 0; k < _buckets.length; k += 1) {
+                long n = _buckets[k].sum();
+                if (n == 0) {
+                    continue;
+                } else if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                String bound = k == Long.SIZE - 1 ? "inf"
+                    : Long.toString(1L << k);
+                out.append('"').append(bound).append("\":").append(n);
+            }
+            out.append("}}");
+        }
+
+        /** _buckets[K] counts the values in bucket K. */
+        private final LongAdder[] _buckets = new LongAdder[Long.SIZE];
+
+        /** The sum of the values counted. */
+        private final LongAdder _sum = new LongAdder();
+
+        /** The largest value counted. */
+        private final AtomicLong _max = new AtomicLong();
+    }
+
+    /** The JMX view of the metrics. */
+    private static final class Bean implements MetricsMBean {
+
+        @Override
+        public String getJson() {
+            return json();
+        }
+
+        @Override
+        public long getCharsConverted() {
+            return CHARS_CONVERTED.sum();
+        }
+
+        @Override
+        public long getDoubleSteps() {
+            return DOUBLE_STEPS.sum();
+        }
+
+        @Override
+        public long getRotorInsertions() {
+            return ROTOR_INSERTIONS.sum();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+
+    /** Metrics are not instantiated. */
+    private Metrics() {
+    }
+
+    /** The counters, in the order dumped. */
+    private static final LongAdder[] COUNTERS = {
+        CHARS_CONVERTED, DOUBLE_STEPS, ROTOR_INSERTIONS, SETTINGS_LINES,
+        CONFIG_PARSES, CONFIG_CACHE_HITS, PERMUTATION_CACHE_HITS,
+        OUTPUT_WRITTEN,
+    };
+
+    /** The names of COUNTERS. */
+    private static final String[] COUNTER_NAMES = {
+        "chars_converted", "double_steps", "rotor_insertions",
+        "settings_lines", "config_parses", "config_cache_hits",
+        "permutation_cache_hits", "output_written",
+    };
+
+    /** The histograms, in the order dumped. */
+    private static final Histogram[] HISTOGRAMS = {
+        CONFIG_TIME, CONVERT_TIME, FORMAT_TIME, WRITE_TIME, PROCESS_TIME,
+        REQUEST_TIME,
+    };
+
+    /** The names of HISTOGRAMS. */
+    private static final String[] HISTOGRAM_NAMES = {
+        "config_ns", "convert_ns", "format_ns", "write_ns", "process_ns",
+        "request_ns",
+    };
+
+    /** True iff the metrics have been registered with JMX. */
+    private static boolean _registered;
+
+}
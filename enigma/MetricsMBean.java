@@ -0,0 +1,24 @@
+package enigma;
+
+/** The management interface through which Metrics are published over
+ *  JMX.
+ *  @author Yohan Yan
+ */
+public interface MetricsMBean {
+
+    /** Return all counters and histograms, as for Metrics.json(). */
+    String getJson();
+
+    /** Return the number of characters converted. */
+    long getCharsConverted();
+
+    /** Return the number of double steps of middle rotors. */
+    long getDoubleSteps();
+
+    /** Return the number of times rotors were inserted. */
+    long getRotorInsertions();
+
+    /** Set all counters and histograms to zero. */
+    void reset();
+
+}
@@ -0,0 +1,53 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Metrics class.
+ *  @author Yohan Yan
+ */
+public class MetricsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void testHistogram() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (long value : new long[] { 0, 1, 3, 3, 1000, -5 }) {
+            histogram.record(value);
+        }
+        assertEquals(6, histogram.count());
+        assertEquals(1007, histogram.sum());
+        assertEquals(1000, histogram.max());
+        StringBuilder json = new StringBuilder();
+        histogram.json(json);
+        assertEquals("{\"count\":6,\"sum\":1007,\"max\":1000,"
+                     + "\"buckets\":{\"1\":2,\"2\":1,\"4\":2,\"1024\":1}}",
+                     json.toString());
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.max());
+    }
+
+    @Test
+    public void testHistogramExtremes() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        histogram.record(Long.MAX_VALUE);
+        StringBuilder json = new StringBuilder();
+        histogram.json(json);
+        assertTrue(json.toString().endsWith("\"buckets\":{\"inf\":1}}"));
+    }
+
+    @Test
+    public void testJson() {
+        String json = Metrics.json();
+        assertTrue(json.startsWith("{\"enabled\":" + Metrics.ENABLED
+                                   + ",\"counters\":{\"chars_converted\":"));
+        assertTrue(json.contains("\"histograms\":{\"config_ns\":{"));
+        assertTrue(json.endsWith("}}"));
+    }
+}
@@ -10,6 +10,9 @@ class MovingRotor extends Rotor {
     /** A string of notches of the rotor. */
     private String _notches;
 
+    /** _notchAt[S] is true iff setting S is one of my notches. */
+    private final boolean[] _notchAt;
+
     /** A rotor named NAME whose permutation in its default setting is
      *  PERM, and whose notches are at the positions indicated in NOTCHES.
      *  The Rotor is initally in its 0 setting (first character of its
@@ -18,6 +21,27 @@ class MovingRotor extends Rotor {
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
         _notches = notches;
+        _notchAt = new boolean[size()];
+        for (int x = 0; x < notches.length(); x += 1) {
+            char letter = notches.charAt(x);
+            if (!alphabet().contains(letter)) {
+                throw error("notch %c of rotor %s not in alphabet",
+                            letter, name);
+            }
+            _notchAt[alphabet().toInt(letter)] = true;
+        }
+    }
+
+    /** A copy of ROTOR, sharing its wiring and notches. */
+    MovingRotor(MovingRotor rotor) {
+        super(rotor);
+        _notches = rotor._notches;
+        _notchAt = rotor._notchAt;
+    }
+
+    @Override
+    Rotor copy() {
+        return new MovingRotor(this);
     }
 
     @Override
@@ -27,17 +51,17 @@ class MovingRotor extends Rotor {
 
     @Override
     boolean atNotch() {
-        for (int x = 0; x < _notches.length(); x++) {
-            char letter = _notches.charAt(x);
-            if (alphabet().toInt(letter) == setting()) {
-                return true;
-            }
-        }
-        return false;
+        return _notchAt[setting()];
+    }
+
+    @Override
+    boolean notchAt(int posn) {
+        return _notchAt[posn];
     }
 
     @Override
     void advance() {
-        set((setting() + 1) % size());
+        int next = setting() + 1;
+        set(next == size() ? 0 : next);
     }
 }
@@ -0,0 +1,194 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** Applies an Enigma machine to a sequence of settings and message lines
+ *  using several threads.  Each settings line completely resets the
+ *  machine, except that a settings line without a plugboard keeps the
+ *  previous one, so the input divides into independent sections, each
+ *  consisting of a settings line and the messages that follow it.  The
+ *  sections are converted concurrently, each with a copy of the machine
+ *  that no other section is using, and their results are written in the
+ *  original order.
+ *  @author Yohan Yan
+ */
+class ParallelProcessor {
+
+    /** Maximum number of sections per thread that may be read ahead of
+     *  the one being written. */
+    static final int READ_AHEAD = 4;
+
+    /** A processor that converts messages with copies of ENIGMA, whose
+     *  alphabet is ALPHABET, using THREADS threads, and passes settings
+     *  lines to MAIN. */
+    ParallelProcessor(Main main, Machine enigma, Alphabet alphabet,
+                      int threads) {
+        _main = main;
+        _enigma = enigma;
+        _alphabet = alphabet;
+        _threads = threads;
+    }
+
+    /** Convert the settings and message lines read from INPUT, writing
+     *  the results to OUTPUT. */
+    void process(BufferedReader input, GroupWriter output) {
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+        try {
+            String settings = null, plugboard = null;
+            List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = readLine(input)) != null) {
+                if (!Main.isSettingsLine(line)) {
+                    lines.add(line);
+                    continue;
+                }
+                submit(pool, pending, output, settings, plugboard, lines);
+                String cycles = _main.plugboardCycles(_enigma, line);
+                if (cycles != null) {
+                    plugboard = cycles;
+                }
+                settings = line;
+                lines = new ArrayList<>();
+            }
+            submit(pool, pending, output, settings, plugboard, lines);
+            while (!pending.isEmpty()) {
+                write(pending.poll(), output);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Add the section with settings line SETTINGS, plugboard cycles
+     *  PLUGBOARD, and message lines LINES to the tasks in POOL, appending
+     *  its result to PENDING.  First write results from PENDING to OUTPUT
+     *  as needed to limit the number of sections in memory.  SETTINGS is
+     *  null for lines preceding the first settings line. */
+    private void submit(ExecutorService pool,
+                        ArrayDeque<Future<String>> pending,
+                        GroupWriter output, String settings,
+                        String plugboard, List<String> lines) {
+        if (settings == null && lines.isEmpty()) {
+            return;
+        }
+        while (pending.size() >= READ_AHEAD * _threads) {
+            write(pending.poll(), output);
+        }
+        pending.add(pool.submit(() -> convert(settings, plugboard, lines)));
+    }
+
+    /** Wait for the converted section RESULT and write it to OUTPUT. */
+    private void write(Future<String> result, GroupWriter output) {
+        try {
+            output.append(result.get());
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw error("conversion failed: %s", excp.getCause());
+        }
+    }
+
+    /** Return the formatted conversion of the message lines LINES with
+     *  a copy of the machine set up according to the settings line
+     *  SETTINGS, using the plugboard cycles PLUGBOARD if SETTINGS gives
+     *  none.  The copy is taken from _idle, and returned to it. */
+    private String convert(String settings, String plugboard,
+                           List<String> lines) {
+        if (settings == null) {
+            return convert(_enigma.copy(), lines);
+        }
+        Machine enigma = _idle.poll();
+        if (enigma == null) {
+            enigma = _enigma.copy();
+        }
+        try {
+            _main.setUp(enigma, settings);
+            if (_main.plugboardCycles(enigma, settings) == null) {
+                enigma.setPlugboard(plugboard == null ? null
+                                    : Permutation.intern(plugboard,
+                                                         _alphabet));
+            }
+            return convert(enigma, lines);
+        } finally {
+            _idle.add(enigma);
+        }
+    }
+
+    /** Return the formatted conversion of the message lines LINES with
+     *  ENIGMA. */
+    private String convert(Machine enigma, List<String> lines) {
+        StringWriter text = new StringWriter();
+        GroupWriter result = new GroupWriter(text, RESULT_BUFFER_SIZE);
+        char[] converted = new char[0];
+        for (String line : lines) {
+            if (converted.length < line.length()) {
+                converted = new char[line.length()];
+            }
+            line.getChars(0, line.length(), converted, 0);
+            if (!isBlank(line)) {
+                int k = enigma.convert(converted, 0, line.length(),
+                                       converted);
+                result.write(converted, 0, k);
+            }
+            result.endLine();
+        }
+        result.flush();
+        return text.toString();
+    }
+
+    /** Return true iff LINE consists entirely of whitespace. */
+    private static boolean isBlank(String line) {
+        for (int i = 0; i < line.length(); i += 1) {
+            if (!Machine.isSpace(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the next line from INPUT, or null at the end. */
+    private static String readLine(BufferedReader input) {
+        try {
+            return input.readLine();
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        }
+    }
+
+    /** Size of the buffers used to format the results of sections. */
+    private static final int RESULT_BUFFER_SIZE = 1 << 10;
+
+    /** Receives settings lines. */
+    private final Main _main;
+
+    /** The configured machine, which is copied for the sections. */
+    private final Machine _enigma;
+
+    /** The alphabet of _enigma. */
+    private final Alphabet _alphabet;
+
+    /** Number of threads to use. */
+    private final int _threads;
+
+    /** Copies of _enigma not in use by any section.  There are never
+     *  more copies than threads, and none is tied to a thread. */
+    private final ConcurrentLinkedQueue<Machine> _idle =
+        new ConcurrentLinkedQueue<>();
+
+}
@@ -1,6 +1,9 @@
 package enigma;
 
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
@@ -9,18 +12,71 @@ import static enigma.EnigmaException.*;
  */
 class Permutation {
 
+    /** Maximum number of permutations kept by intern. */
+    static final int CACHE_SIZE = 256;
+
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
-    /** A permutation stored in a HashMap. */
-    private HashMap<Character, Character> permutations;
+    /** The permutation as a table: index I maps to _forward[I]. */
+    private final int[] _forward;
 
-    /** An inverse of the permutation stored in a HashMap. */
-    private HashMap<Character, Character> inverse;
+    /** The inverse of the permutation: index I maps to _inverse[I]. */
+    private final int[] _inverse;
 
-    /** Cycles stored in a string. */
+    /** Cycles stored in a string, with whitespace removed. */
     private String _cycles;
 
+    /** Recently interned permutations, by their cycles and alphabets,
+     *  least recently used first. */
+    private static final Map<Key, Permutation> CACHE =
+        new LinkedHashMap<>(CACHE_SIZE, 0.75f, true);
+
+    /** Return a permutation of ALPHABET specified by CYCLES, as for
+     *  new Permutation(CYCLES, ALPHABET), reusing the one last returned
+     *  for the same alphabet and cycles, ignoring whitespace, if it is
+     *  still among the CACHE_SIZE most recently used.  Permutations are
+     *  never modified, so they may be shared by many machines. */
+    static Permutation intern(String cycles, Alphabet alphabet) {
+        Key key = new Key(compact(cycles), alphabet);
+        synchronized (CACHE) {
+            Permutation cached = CACHE.get(key);
+            if (cached != null) {
+                if (Metrics.ENABLED) {
+                    Metrics.PERMUTATION_CACHE_HITS.increment();
+                }
+                return cached;
+            }
+        }
+        Permutation result = new Permutation(cycles, alphabet);
+        synchronized (CACHE) {
+            CACHE.put(key, result);
+            Iterator<Permutation> eldest = CACHE.values().iterator();
+            while (CACHE.size() > CACHE_SIZE) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return result;
+    }
+
+    /** Return CYCLES with whitespace removed. */
+    private static String compact(String cycles) {
+        StringBuilder result = null;
+        for (int x = 0; x < cycles.length(); x += 1) {
+            char c = cycles.charAt(x);
+            if (!Character.isWhitespace(c)) {
+                if (result != null) {
+                    result.append(c);
+                }
+            } else if (result == null) {
+                result = new StringBuilder(cycles.length());
+                result.append(cycles, 0, x);
+            }
+        }
+        return result == null ? cycles : result.toString();
+    }
+
     /** Set this Permutation to that specified by CYCLES, a string in the
      *  form "(cccc) (cc) ..." where the c's are characters in ALPHABET, which
      *  is interpreted as a permutation in cycle notation.  Characters in the
@@ -28,83 +84,78 @@ class Permutation {
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
-        cycles = cycles.trim();
-        cycles = cycles.replaceAll("\\s+", "");
-        String reverse = "";
-        for (int i = cycles.length() - 1; i > -1; i--) {
-            reverse += cycles.charAt(i);
-        }
-        _cycles = cycles;
-        permutations = new HashMap<>();
-        if (cycles.length() > 0) {
-            char first = cycles.charAt(1);
-            for (int x = 0; x < cycles.length(); x++) {
-                if (cycles.charAt(x) == '(') {
-                    x++;
-                    if (_alphabet.contains(cycles.charAt(x))) {
-                        first = cycles.charAt(x);
-                        if (cycles.charAt(x + 1) == ')') {
-                            permutations.put(cycles.charAt(x), first);
-                        } else {
-                            permutations.put(cycles.charAt(x),
-                                    cycles.charAt(x + 1));
-                        }
-                    }
-                } else if (x + 1 < cycles.length()
-                        && cycles.charAt(x + 1) == ')') {
-                    if (_alphabet.contains(cycles.charAt(x))) {
-                        permutations.put(cycles.charAt(x), first);
-                        x += 1;
-                    }
-                } else if (cycles.charAt(x) == ')') {
-                    if (_alphabet.contains(cycles.charAt(x - 1))) {
-                        permutations.put(cycles.charAt(x - 1), first);
-                    }
-                } else if (_alphabet.contains(cycles.charAt(x))) {
-                    permutations.put(cycles.charAt(x), cycles.charAt(x + 1));
+        int n = alphabet.size();
+        _forward = new int[n];
+        _inverse = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            _forward[i] = _inverse[i] = -1;
+        }
+        StringBuilder compact = new StringBuilder(cycles.length());
+        int start = -1;
+        for (int x = 0; x < cycles.length(); x += 1) {
+            char c = cycles.charAt(x);
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            compact.append(c);
+            if (c == '(') {
+                if (start >= 0) {
+                    throw error("nested cycle in %s", cycles);
+                }
+                start = compact.length();
+            } else if (c == ')') {
+                if (start < 0) {
+                    throw error("unmatched ')' in %s", cycles);
                 }
+                addCycle(compact, start, compact.length() - 1);
+                start = -1;
+            } else if (start < 0) {
+                throw error("character '%c' outside of a cycle", c);
+            }
+        }
+        if (start >= 0) {
+            throw error("unterminated cycle in %s", cycles);
+        }
+        _cycles = compact.toString();
+        for (int i = 0; i < n; i += 1) {
+            if (_forward[i] < 0) {
+                _forward[i] = _inverse[i] = i;
             }
         }
-        addCycle(cycles);
     }
 
-    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
-    private void addCycle(String cycle) {
-        String reverse = "";
-        for (int i = cycle.length() - 1; i > -1; i--) {
-            reverse += cycle.charAt(i);
-        }
-        inverse = new HashMap<>();
-        if (reverse.length() > 0) {
-            char first = reverse.charAt(1);
-            for (int x = 0; x < reverse.length(); x++) {
-                if (reverse.charAt(x) == ')') {
-                    x++;
-                    if (_alphabet.contains(reverse.charAt(x))) {
-                        first = reverse.charAt(x);
-                        if (reverse.charAt(x + 1) == '(') {
-                            inverse.put(reverse.charAt(x), first);
-                        } else {
-                            inverse.put(reverse.charAt(x),
-                                    reverse.charAt(x + 1));
-                        }
-                    }
-                } else if (x + 1 < reverse.length()
-                        && reverse.charAt(x + 1) == '(') {
-                    if (_alphabet.contains(reverse.charAt(x))) {
-                        inverse.put(reverse.charAt(x), first);
-                        x += 1;
-                    }
-                } else if (reverse.charAt(x) == '(') {
-                    if (_alphabet.contains(reverse.charAt(x - 1))) {
-                        inverse.put(reverse.charAt(x - 1), first);
-                    }
-                } else if (_alphabet.contains(reverse.charAt(x))) {
-                    inverse.put(reverse.charAt(x), reverse.charAt(x + 1));
-                }
-            }
+    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where the
+     *  characters CYCLES[FROM .. TO-1] are c0c1...cm. */
+    private void addCycle(CharSequence cycles, int from, int to) {
+        if (from == to) {
+            return;
+        }
+        int first = index(cycles.charAt(from));
+        int prev = first;
+        for (int x = from + 1; x < to; x += 1) {
+            int next = index(cycles.charAt(x));
+            link(prev, next);
+            prev = next;
         }
+        link(prev, first);
+    }
+
+    /** Return the index of CH in my alphabet, which must contain it. */
+    private int index(char ch) {
+        if (!_alphabet.contains(ch)) {
+            throw error("character '%c' not in alphabet", ch);
+        }
+        return _alphabet.toInt(ch);
+    }
+
+    /** Record that FROM maps to TO. */
+    private void link(int from, int to) {
+        if (_forward[from] >= 0 || _inverse[to] >= 0) {
+            throw error("character '%c' appears in more than one cycle",
+                        _alphabet.toChar(_forward[from] >= 0 ? from : to));
+        }
+        _forward[from] = to;
+        _inverse[to] = from;
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -118,52 +169,37 @@ class Permutation {
 
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return _alphabet.size();
+        return _forward.length;
     }
 
-    /** Return the result of applying this permutation to P modulo the
-     *  alphabet size. */
+    /** Return the result of applying this permutation to P, where
+     *  0 <= P < size().  P is not reduced modulo the alphabet size. */
     int permute(int p) {
-        char letter = _alphabet.toChar(p);
-        letter = permute(letter);
-        return _alphabet.toInt(letter);
+        return _forward[p];
     }
 
     /** Return the result of applying the inverse of this permutation
-     *  to  C modulo the alphabet size. */
+     *  to C, where 0 <= C < size().  C is not reduced modulo the
+     *  alphabet size. */
     int invert(int c) {
-        char letter = _alphabet.toChar(c);
-        letter = invert(letter);
-        return _alphabet.toInt(letter);
+        return _inverse[c];
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        Character letter = p;
-        if (permutations != null) {
-            if (permutations.containsKey(letter)) {
-                return (char) permutations.get(letter);
-            } else {
-                return p;
-            }
-        } else {
+        if (!_alphabet.contains(p)) {
             return p;
         }
+        return _alphabet.toChar(_forward[_alphabet.toInt(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     char invert(char c) {
-        Character letter = c;
-        if (inverse != null) {
-            if (inverse.containsKey(letter)) {
-                return (char) inverse.get(letter);
-            } else {
-                return c;
-            }
-        } else {
+        if (!_alphabet.contains(c)) {
             return c;
         }
+        return _alphabet.toChar(_inverse[_alphabet.toInt(c)]);
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -174,6 +210,44 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        return _alphabet.size() == permutations.size();
+        for (int i = 0; i < _forward.length; i += 1) {
+            if (_forward[i] == i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The key of an interned permutation: its cycles, without
+     *  whitespace, and its alphabet, compared by identity. */
+    private static final class Key {
+
+        /** The key for CYCLES over ALPHABET. */
+        Key(String cycles, Alphabet alphabet) {
+            _cycles = cycles;
+            _alphabet = alphabet;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return _alphabet == other._alphabet
+                && _cycles.equals(other._cycles);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(_alphabet)
+                + _cycles.hashCode();
+        }
+
+        /** The cycles, without whitespace. */
+        private final String _cycles;
+
+        /** The alphabet. */
+        private final Alphabet _alphabet;
     }
 }
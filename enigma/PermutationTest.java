@@ -79,4 +79,81 @@ public class PermutationTest {
                 new CharacterRange('A', 'Z'));
         assertEquals(p2.derangement(), false);
     }
+
+    @Test
+    public void testSingletonsAndInverse() {
+        Permutation p = new Permutation("(BACD) (E)  ( FG )",
+                new CharacterRange('A', 'H'));
+        for (int i = 0; i < p.size(); i += 1) {
+            assertEquals(i, p.invert(p.permute(i)));
+        }
+        assertEquals('E', p.permute('E'));
+        assertEquals('H', p.invert('H'));
+        assertEquals('B', p.permute('D'));
+        assertEquals('F', p.invert('G'));
+        assertEquals(false, p.derangement());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testRepeatedCharacter() {
+        new Permutation("(ABC) (CD)", new CharacterRange('A', 'D'));
+    }
+
+    @Test
+    public void testCharacterSet() {
+        Alphabet alpha = new CharacterSet("0123ABCDxyz.\u03b1\u4e2d");
+        assertEquals(14, alpha.size());
+        assertTrue(alpha.contains('x'));
+        assertFalse(alpha.contains('X'));
+        assertFalse(alpha.contains('4'));
+        assertFalse(alpha.contains('\u4e2e'));
+        assertEquals(11, alpha.toInt('.'));
+        assertEquals(13, alpha.toInt('\u4e2d'));
+        assertEquals('\u03b1', alpha.toChar(12));
+        Permutation p = new Permutation("(0A.) (\u4e2dz)", alpha);
+        assertEquals('.', p.permute('A'));
+        assertEquals('0', p.permute('.'));
+        assertEquals('z', p.permute('\u4e2d'));
+        assertEquals('\u4e2d', p.invert('z'));
+        assertEquals('1', p.permute('1'));
+    }
+
+    @Test
+    public void testIntern() {
+        Permutation p = Permutation.intern("(HQ) (EX) (IP)", UPPER);
+        assertSame(p, Permutation.intern("(HQ)(EX)(IP)", UPPER));
+        assertSame(p, Permutation.intern(" (HQ)\t(EX) (IP) ", UPPER));
+        assertEquals('Q', p.permute('H'));
+        assertNotSame(p, Permutation.intern("(HQ) (EX)", UPPER));
+        Alphabet other = new CharacterRange('A', 'Z');
+        assertNotSame(p, Permutation.intern("(HQ) (EX) (IP)", other));
+        for (int i = 0; i < Permutation.CACHE_SIZE; i += 1) {
+            Permutation.intern("(" + UPPER.toChar(i % 26)
+                               + UPPER.toChar((i / 26 + i + 1) % 26) + ")",
+                               UPPER);
+        }
+        Permutation q = Permutation.intern("(HQ) (EX) (IP)", UPPER);
+        assertNotSame(p, q);
+        assertEquals('Q', q.permute('H'));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testInternBadCycles() {
+        Permutation.intern("(AB) (BC)", UPPER);
+    }
+
+    @Test
+    public void testIndices() {
+        assertArrayEquals(new int[] { 0, 25, 1, 7 },
+                          UPPER.indices(" Az\tb\nH "));
+        assertArrayEquals(new int[0], UPPER.indices(" \t"));
+        Alphabet alpha = new CharacterSet("xyzXY");
+        assertArrayEquals(new int[] { 0, 3, 2, 1 },
+                          alpha.indices("x X z y"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testCharacterSetDuplicate() {
+        new CharacterSet("ABCA");
+    }
 }
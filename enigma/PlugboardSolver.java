@@ -0,0 +1,305 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static enigma.EnigmaException.*;
+
+/** Recovers the plugboard of a machine whose rotor order and start
+ *  settings are known, by hill climbing on the index of coincidence of
+ *  the decryption of a ciphertext.  Each climb starts from a random
+ *  plugboard and repeatedly tries connecting or disconnecting each pair
+ *  of letters, keeping changes that raise the score, until none does.
+ *  Several climbs from different random starts run in parallel.
+ *
+ *  The substitution performed by the rotors at each position of the
+ *  message is computed once.  The plugboard is kept as an array of
+ *  partners that is changed in place, and a change is scored by
+ *  recomputing only the positions whose decryption passes through a
+ *  letter it affects, adjusting the letter counts as it goes.
+ *  @author Yohan Yan
+ */
+class PlugboardSolver {
+
+    /** A solver for CIPHERTEXT, encrypted by ENIGMA (or a machine of
+     *  which it is a copy) starting in STATE, whose plugboard is
+     *  ignored.  Whitespace in CIPHERTEXT is ignored, and lower-case
+     *  letters not in the alphabet are upper-cased. */
+    PlugboardSolver(Machine enigma, MachineState state, String ciphertext) {
+        _alphabet = enigma.alphabet();
+        _size = _alphabet.size();
+        _cipher = _alphabet.indices(ciphertext);
+        if (_cipher.length < 2) {
+            throw error("ciphertext too short to solve");
+        }
+        int[] ids = new int[state.numRotors()];
+        int[] settings = new int[state.numRotors()];
+        for (int x = 0; x < ids.length; x += 1) {
+            ids[x] = state.rotorId(x);
+            settings[x] = state.setting(x);
+        }
+        Machine machine = enigma.copy();
+        machine.restore(new MachineState(ids, settings, null));
+        _scrambler = new int[_cipher.length * _size];
+        int[] row = new int[_size];
+        for (int i = 0; i < _cipher.length; i += 1) {
+            machine.step();
+            machine.substitution(row);
+            System.arraycopy(row, 0, _scrambler, i * _size, _size);
+        }
+    }
+
+    /** Return the plugboard, as cycles acceptable to Permutation, found
+     *  by the best of RESTARTS climbs, run using the threads of POOL.
+     *  The random starts are determined by SEED. */
+    String solve(int restarts, long seed, ForkJoinPool pool) {
+        if (restarts <= 0) {
+            throw error("need at least one restart");
+        }
+        return cycles(pool.invoke(new ClimbTask(seed, 0, restarts))._plug);
+    }
+
+    /** Return the index of coincidence of the decryption with plugboard
+     *  CYCLES. */
+    double score(String cycles) {
+        Permutation plugboard = new Permutation(cycles, _alphabet);
+        int[] plug = new int[_size];
+        for (int c = 0; c < _size; c += 1) {
+            plug[c] = plugboard.permute(c);
+        }
+        return new Climb(plug).score();
+    }
+
+    /** The result of a climb: a plugboard and its score. */
+    private static class Result {
+        /** A result for plugboard PLUG, in which PAIRS is the number of
+         *  ordered pairs of positions holding the same plaintext
+         *  character. */
+        Result(int[] plug, long pairs) {
+            _plug = plug;
+            _pairs = pairs;
+        }
+
+        /** The plugboard: PLUG[C] is the partner of C (or C). */
+        private final int[] _plug;
+
+        /** The score, which is proportional to the index of
+         *  coincidence. */
+        private final long _pairs;
+    }
+
+    /** A fork/join task performing the climbs numbered FROM .. TO-1 and
+     *  returning the best result, preferring lower-numbered climbs. */
+    private class ClimbTask extends RecursiveTask<Result> {
+
+        /** A task for climbs FROM .. TO-1, the random start of climb R
+         *  being determined by SEED + R. */
+        ClimbTask(long seed, int from, int to) {
+            _seed = seed;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected Result compute() {
+            if (_to - _from == 1) {
+                Climb climb = new Climb(randomPlugboard(_seed + _from));
+                climb.run();
+                return new Result(climb._plug, climb._pairs);
+            }
+            int mid = _from + (_to - _from) / 2;
+            ClimbTask left = new ClimbTask(_seed, _from, mid);
+            left.fork();
+            Result right = new ClimbTask(_seed, mid, _to).compute();
+            Result best = left.join();
+            return right._pairs > best._pairs ? right : best;
+        }
+
+        /** Seed of the random starts. */
+        private final long _seed;
+
+        /** Range of climbs performed. */
+        private final int _from, _to;
+    }
+
+    /** Return a plugboard connecting a random number of random pairs of
+     *  letters, chosen using SEED. */
+    private int[] randomPlugboard(long seed) {
+        Random random = new Random(seed);
+        int[] plug = new int[_size];
+        for (int c = 0; c < _size; c += 1) {
+            plug[c] = c;
+        }
+        for (int k = random.nextInt(_size / 4 + 1); k > 0; k -= 1) {
+            int a = random.nextInt(_size), b = random.nextInt(_size);
+            if (plug[a] == a && plug[b] == b) {
+                plug[a] = b;
+                plug[b] = a;
+            }
+        }
+        return plug;
+    }
+
+    /** Return PLUG as a string of cycles. */
+    private String cycles(int[] plug) {
+        StringBuilder result = new StringBuilder();
+        for (int c = 0; c < _size; c += 1) {
+            if (plug[c] > c) {
+                if (result.length() > 0) {
+                    result.append(' ');
+                }
+                result.append('(').append(_alphabet.toChar(c))
+                    .append(_alphabet.toChar(plug[c])).append(')');
+            }
+        }
+        return result.toString();
+    }
+
+    /** One hill climb, with its own plugboard and decryption. */
+    private class Climb {
+
+        /** A climb starting from plugboard PLUG, which it modifies. */
+        Climb(int[] plug) {
+            int n = _cipher.length;
+            _plug = plug;
+            _mid = new int[n];
+            _plain = new int[n];
+            _counts = new int[_size];
+            _affected = new boolean[_size];
+            _undoPos = new int[n];
+            _undoMid = new int[n];
+            _undoPlain = new int[n];
+            for (int i = 0; i < n; i += 1) {
+                _mid[i] = _scrambler[i * _size + plug[_cipher[i]]];
+                _plain[i] = plug[_mid[i]];
+                _pairs += 2 * _counts[_plain[i]];
+                _counts[_plain[i]] += 1;
+            }
+        }
+
+        /** Return the index of coincidence of my current decryption. */
+        double score() {
+            long n = _cipher.length;
+            return (double) _pairs / (n * (n - 1));
+        }
+
+        /** Climb until no single change improves the score. */
+        void run() {
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int a = 0; a < _size; a += 1) {
+                    for (int b = a + 1; b < _size; b += 1) {
+                        improved |= tryToggle(a, b);
+                    }
+                }
+            }
+        }
+
+        /** Connect A and B, disconnecting their current partners, or
+         *  disconnect them if they are connected to each other.  Keep the
+         *  change and return true iff it raises the score. */
+        private boolean tryToggle(int a, int b) {
+            int pa = _plug[a], pb = _plug[b];
+            long before = _pairs;
+            _plug[pa] = pa;
+            _plug[pb] = pb;
+            _plug[a] = a;
+            _plug[b] = b;
+            if (pa != b) {
+                _plug[a] = b;
+                _plug[b] = a;
+            }
+            _affected[a] = _affected[b] = _affected[pa] = _affected[pb] = true;
+            int changed = rescore();
+            _affected[a] = _affected[b] = _affected[pa] = _affected[pb] = false;
+            if (_pairs > before) {
+                return true;
+            }
+            _plug[a] = pa;
+            _plug[pa] = a;
+            _plug[b] = pb;
+            _plug[pb] = b;
+            for (int k = changed - 1; k >= 0; k -= 1) {
+                int i = _undoPos[k];
+                recount(_plain[i], _undoPlain[k]);
+                _mid[i] = _undoMid[k];
+                _plain[i] = _undoPlain[k];
+            }
+            return false;
+        }
+
+        /** Recompute the decryption at the positions affected by a change
+         *  to the plugboard entries of the letters marked in _affected,
+         *  recording their old values in the undo arrays.  Return the
+         *  number of positions changed. */
+        private int rescore() {
+            int changed = 0;
+            for (int i = 0; i < _cipher.length; i += 1) {
+                int c = _cipher[i];
+                if (!_affected[c] && !_affected[_mid[i]]) {
+                    continue;
+                }
+                int mid = _scrambler[i * _size + _plug[c]];
+                int plain = _plug[mid];
+                if (plain != _plain[i] || mid != _mid[i]) {
+                    _undoPos[changed] = i;
+                    _undoMid[changed] = _mid[i];
+                    _undoPlain[changed] = _plain[i];
+                    changed += 1;
+                    recount(_plain[i], plain);
+                    _mid[i] = mid;
+                    _plain[i] = plain;
+                }
+            }
+            return changed;
+        }
+
+        /** Update _counts and _pairs for a position whose decryption
+         *  changes from OLD to NEW. */
+        private void recount(int old, int now) {
+            _counts[old] -= 1;
+            _pairs -= 2 * _counts[old];
+            _pairs += 2 * _counts[now];
+            _counts[now] += 1;
+        }
+
+        /** The plugboard: _plug[C] is the partner of C (or C). */
+        private final int[] _plug;
+
+        /** _mid[I] is the result of the rotors at position I. */
+        private final int[] _mid;
+
+        /** The decryption. */
+        private final int[] _plain;
+
+        /** Number of occurrences of each character in _plain. */
+        private final int[] _counts;
+
+        /** Number of ordered pairs of positions in _plain holding the
+         *  same character. */
+        private long _pairs;
+
+        /** Letters whose plugboard entries are being changed. */
+        private final boolean[] _affected;
+
+        /** Positions changed by the last rescore, with their old values of
+         *  _mid and _plain. */
+        private final int[] _undoPos, _undoMid, _undoPlain;
+    }
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+
+    /** The size of _alphabet. */
+    private final int _size;
+
+    /** The ciphertext, as alphabet indices. */
+    private final int[] _cipher;
+
+    /** _scrambler[I * _size + C] is the conversion of C by the rotors at
+     *  position I of the message. */
+    private final int[] _scrambler;
+
+}
@@ -13,6 +13,16 @@ class Reflector extends FixedRotor {
         super(name, perm);
     }
 
+    /** A copy of ROTOR, sharing its wiring. */
+    Reflector(Reflector rotor) {
+        super(rotor);
+    }
+
+    @Override
+    Rotor copy() {
+        return new Reflector(this);
+    }
+
     /** Says that it is a reflector.
      * @return boolean*/
     boolean reflecting() {
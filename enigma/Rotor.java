@@ -16,11 +16,43 @@ class Rotor {
     /** The setting implemented by this rotor. */
     private int _setting;
 
+    /** _forward[S][P] is the result of convertForward(P) at setting S. */
+    private final int[][] _forward;
+
+    /** _backward[S][E] is the result of convertBackward(E) at setting S. */
+    private final int[][] _backward;
+
     /** A rotor named NAME whose permutation is given by PERM. */
     Rotor(String name, Permutation perm) {
         _name = name;
         _permutation = perm;
         _setting = 0;
+        int n = perm.size();
+        _forward = new int[n][n];
+        _backward = new int[n][n];
+        for (int s = 0; s < n; s += 1) {
+            for (int p = 0; p < n; p += 1) {
+                int contact = perm.wrap(p + s);
+                _forward[s][p] = perm.wrap(perm.permute(contact) - s);
+                _backward[s][p] = perm.wrap(perm.invert(contact) - s);
+            }
+        }
+    }
+
+    /** A rotor with the same name, wiring, and setting as ROTOR, sharing
+     *  its conversion tables. */
+    Rotor(Rotor rotor) {
+        _name = rotor._name;
+        _permutation = rotor._permutation;
+        _setting = rotor._setting;
+        _forward = rotor._forward;
+        _backward = rotor._backward;
+    }
+
+    /** Return a new rotor like me, sharing my wiring, whose setting can
+     *  be changed independently of mine. */
+    Rotor copy() {
+        return new Rotor(this);
     }
 
     /** Return my name. */
@@ -71,17 +103,23 @@ class Rotor {
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
-        int contactEntered = _permutation.wrap(p + _setting);
-        return _permutation.wrap(_permutation.permute(contactEntered)
-                - _setting);
+        return _forward[_setting][p];
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        int contactEntered = _permutation.wrap(e + _setting);
-        return _permutation.wrap(_permutation.invert(contactEntered)
-                - _setting);
+        return _backward[_setting][e];
+    }
+
+    /** Return the result of convertForward(P) if my setting were POSN. */
+    int convertForward(int p, int posn) {
+        return _forward[posn][p];
+    }
+
+    /** Return the result of convertBackward(E) if my setting were POSN. */
+    int convertBackward(int e, int posn) {
+        return _backward[posn][e];
     }
 
     /** Returns true iff I am positioned to allow the rotor to my left
@@ -90,6 +128,11 @@ class Rotor {
         return false;
     }
 
+    /** Returns true iff I would be at a notch at setting POSN. */
+    boolean notchAt(int posn) {
+        return false;
+    }
+
     /** Advance me one position, if possible. By default, does nothing. */
     void advance() {
     }
@@ -0,0 +1,90 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** An immutable description of a rotor from a configuration file: its
+ *  name, its type and notches, and its wiring as cycles.
+ *  @author Yohan Yan
+ */
+final class RotorDescriptor {
+
+    /** A rotor named NAME, of the type given by TYPE as in a
+     *  configuration file ("M" followed by the notches for a moving rotor,
+     *  "N" for a fixed rotor, or "R" for a reflector), wired as described
+     *  by CYCLES. */
+    RotorDescriptor(String name, String type, String cycles) {
+        if (type.charAt(0) == 'M') {
+            _kind = MOVING;
+        } else if (type.equals("N")) {
+            _kind = FIXED;
+        } else if (type.equals("R")) {
+            _kind = REFLECTOR;
+        } else {
+            throw error("bad type %s for rotor %s", type, name);
+        }
+        _name = name;
+        _notches = type.substring(1);
+        _cycles = cycles;
+    }
+
+    /** Return my name. */
+    String name() {
+        return _name;
+    }
+
+    /** Return my notches, or "" if I do not move. */
+    String notches() {
+        return _notches;
+    }
+
+    /** Return my wiring, in cycle notation. */
+    String cycles() {
+        return _cycles;
+    }
+
+    /** Return true iff I describe a moving rotor. */
+    boolean moving() {
+        return _kind == MOVING;
+    }
+
+    /** Return true iff I describe a reflector. */
+    boolean reflecting() {
+        return _kind == REFLECTOR;
+    }
+
+    /** Return a new rotor as I describe, over ALPHABET. */
+    Rotor build(Alphabet alphabet) {
+        Permutation perm = Permutation.intern(_cycles, alphabet);
+        switch (_kind) {
+        case MOVING:
+            return new MovingRotor(_name, perm, _notches);
+        case FIXED:
+            return new FixedRotor(_name, perm);
+        default:
+            return new Reflector(_name, perm);
+        }
+    }
+
+    @Override
+    public String toString() {
+        String type = _kind == MOVING ? "M" + _notches
+            : _kind == FIXED ? "N" : "R";
+        return _name + " " + type + " " + _cycles;
+    }
+
+    /** Kinds of rotor. */
+    private static final int MOVING = 0, FIXED = 1, REFLECTOR = 2;
+
+    /** My name. */
+    private final String _name;
+
+    /** My kind: MOVING, FIXED, or REFLECTOR. */
+    private final int _kind;
+
+    /** My notches. */
+    private final String _notches;
+
+    /** My wiring. */
+    private final String _cycles;
+
+}
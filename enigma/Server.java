@@ -0,0 +1,418 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** A long-running service converting messages with a configured machine,
+ *  so that the configuration is read and the machines are built once for
+ *  many requests.
+ *
+ *  Requests arrive as lines of text, on the standard input or on
+ *  connections to a local socket.  A request is a settings line followed
+ *  by a message line, and is answered by a line holding the converted
+ *  message in groups of five, or by a line starting with "ERROR".  Each
+ *  request is independent: a settings line without a plugboard means no
+ *  plugboard.  A line consisting of STATS is answered by a line of
+ *  counters, and one consisting of METRICS by the Metrics as JSON.
+ *  Blank lines between requests are ignored.  Responses on a
+ *  connection are in the order of its requests.
+ *
+ *  Requests from all connections go onto one queue, served by a fixed
+ *  set of worker threads, each with its own machine, which take the
+ *  requests waiting on the queue in batches of up to BATCH.  A connection
+ *  may have up to WINDOW requests outstanding; it writes their responses
+ *  as they complete, and waits for all of them whenever it has no more
+ *  input at hand.  The queue holds at most QUEUE_CAPACITY requests, so
+ *  that when the workers fall behind, connections wait to add more.
+ *
+ *  Each connection is served by a thread of its own, which mostly waits
+ *  for its client or for the workers.  Where the runtime provides them
+ *  (Java 21 and later), these are virtual threads, so that idle or slow
+ *  clients cost little more than their buffers; otherwise they are
+ *  platform threads, reused between connections.  Conversion is done
+ *  only by the workers, which are platform threads.
+ *  @author Yohan Yan
+ */
+class Server {
+
+    /** Maximum number of requests taken from the queue at once by a
+     *  worker. */
+    static final int BATCH = 64;
+
+    /** Maximum number of requests outstanding on one connection. */
+    static final int WINDOW = 256;
+
+    /** Maximum number of requests waiting for a worker. */
+    static final int QUEUE_CAPACITY = 1 << 12;
+
+    /** Size of each connection's input and output buffers, in
+     *  characters. */
+    static final int CONNECTION_BUFFER = 1 << 10;
+
+    /** Maximum number of connections waiting to be accepted. */
+    static final int BACKLOG = 1 << 10;
+
+    /** The request for counters. */
+    static final String STATS = "STATS";
+
+    /** The request for the metrics, as JSON. */
+    static final String METRICS = "METRICS";
+
+    /** A server applying copies of ENIGMA, using THREADS worker threads,
+     *  and interpreting settings lines with MAIN.  The workers start at
+     *  once. */
+    Server(Main main, Machine enigma, int threads) {
+        _main = main;
+        _workers = new Thread[threads];
+        for (int i = 0; i < threads; i += 1) {
+            startWorker(i, enigma.copy(), Collections.emptyList());
+        }
+    }
+
+    /** Answer the requests read from INPUT, writing the responses to
+     *  OUTPUT, until the end of INPUT. */
+    void serve(BufferedReader input, GroupWriter output) {
+        ArrayDeque<Request> pending = new ArrayDeque<>();
+        String settings = null;
+        String line;
+        while ((line = readLine(input)) != null) {
+            if (settings != null) {
+                Request request = new Request(settings, line);
+                settings = null;
+                pending.add(request);
+                enqueue(request);
+                while (pending.size() >= WINDOW
+                       || !pending.isEmpty() && pending.peek().done()) {
+                    respond(pending.poll(), output);
+                }
+            } else if (line.trim().equals(STATS)
+                       || line.trim().equals(METRICS)) {
+                while (!pending.isEmpty()) {
+                    respond(pending.poll(), output);
+                }
+                output.append((line.trim().equals(STATS) ? stats()
+                               : Metrics.json()) + "\n");
+            } else if (!line.trim().isEmpty()) {
+                settings = line;
+                continue;
+            }
+            if (!ready(input)) {
+                while (!pending.isEmpty()) {
+                    respond(pending.poll(), output);
+                }
+                output.flush();
+            }
+        }
+        while (!pending.isEmpty()) {
+            respond(pending.poll(), output);
+        }
+        if (settings != null) {
+            output.append("ERROR missing message line\n");
+        }
+        output.flush();
+    }
+
+    /** Accept connections on PORT of the loopback interface, serving each
+     *  on its own thread, until the server socket fails. */
+    void listen(int port) {
+        ExecutorService connections = connectionExecutor();
+        try (ServerSocket server =
+                 new ServerSocket(port, BACKLOG,
+                                  InetAddress.getLoopbackAddress())) {
+            while (true) {
+                Socket socket = server.accept();
+                connections.execute(() -> connect(socket));
+            }
+        } catch (IOException excp) {
+            throw error("could not serve port %d: %s", port,
+                        excp.getMessage());
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    /** Serve the requests on SOCKET, closing it at the end. */
+    void connect(Socket socket) {
+        try (Socket s = socket) {
+            BufferedReader input = new BufferedReader(
+                new InputStreamReader(s.getInputStream()), CONNECTION_BUFFER);
+            GroupWriter output = new GroupWriter(
+                new OutputStreamWriter(s.getOutputStream()),
+                CONNECTION_BUFFER);
+            serve(input, output);
+        } catch (IOException | EnigmaException excp) {
+            return;
+        }
+    }
+
+    /** Return a line of counters: the numbers of requests answered,
+     *  failed, and characters converted, the rate of conversion since the
+     *  server started, and the mean and maximum time from the receipt of
+     *  a request to its completion. */
+    String stats() {
+        long requests = _requests.sum();
+        double seconds = (System.nanoTime() - _started) * 1e-9;
+        double mean = requests == 0 ? 0
+            : _latency.sum() * 1e-3 / requests;
+        return String.format("requests=%d errors=%d chars=%d "
+                             + "chars_per_sec=%.0f mean_latency_us=%.1f "
+                             + "max_latency_us=%.1f",
+                             requests, _errors.sum(), _chars.sum(),
+                             _chars.sum() / seconds, mean,
+                             _maxLatency.get() * 1e-3);
+    }
+
+    /** Stop the workers. */
+    void shutdown() {
+        synchronized (_workers) {
+            _stopped = true;
+            for (Thread worker : _workers) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    /** A request: a settings line and a message line. */
+    private static class Request {
+
+        /** A request to convert MESSAGE with settings line SETTINGS,
+         *  received now. */
+        Request(String settings, String message) {
+            _settings = settings;
+            _message = message;
+            _received = System.nanoTime();
+        }
+
+        /** Return true iff I have been answered. */
+        boolean done() {
+            return _result.isDone();
+        }
+
+        /** The settings line. */
+        private final String _settings;
+
+        /** The message line. */
+        private final String _message;
+
+        /** Time of receipt, in nanoseconds. */
+        private final long _received;
+
+        /** The converted message, or the exception that prevented its
+         *  conversion. */
+        private final CompletableFuture<String> _result =
+            new CompletableFuture<>();
+    }
+
+    /** A worker thread's task: answering requests from the queue with its
+     *  own machine.  A request whose conversion throws an Error is failed
+     *  with it, and before the Error propagates, the worker is replaced by
+     *  one that answers the rest of its batch, so that no request is left
+     *  waiting and the number of workers is kept. */
+    private class Worker implements Runnable {
+
+        /** Worker number INDEX, using ENIGMA, which first answers the
+         *  requests in BATCH. */
+        Worker(int index, Machine enigma, List<Request> batch) {
+            _index = index;
+            _enigma = enigma;
+            _batch = new ArrayList<>(BATCH);
+            _batch.addAll(batch);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    while (_next < _batch.size()) {
+                        _next += 1;
+                        answer(_batch.get(_next - 1));
+                    }
+                    _batch.clear();
+                    _next = 0;
+                    _batch.add(_queue.take());
+                    _queue.drainTo(_batch, BATCH - 1);
+                }
+            } catch (InterruptedException excp) {
+                return;
+            } catch (Error excp) {
+                startWorker(_index, _enigma,
+                            _batch.subList(_next, _batch.size()));
+                throw excp;
+            }
+        }
+
+        /** Convert the message of REQUEST, completing it. */
+        private void answer(Request request) {
+            try {
+                if (!Main.isSettingsLine(request._settings)) {
+                    throw error("not a settings line: %s",
+                                request._settings);
+                }
+                _enigma.setPlugboard(null);
+                _main.setUp(_enigma, request._settings);
+                String result = _enigma.convert(request._message);
+                _chars.add(result.length());
+                record(request);
+                request._result.complete(result);
+            } catch (RuntimeException excp) {
+                fail(request, excp);
+            } catch (Error excp) {
+                fail(request, excp);
+                throw excp;
+            }
+        }
+
+        /** My position in _workers. */
+        private final int _index;
+
+        /** The requests taken from the queue, of which those before _next
+         *  have been answered. */
+        private final List<Request> _batch;
+
+        /** Index in _batch of the next request to answer. */
+        private int _next;
+
+        /** This worker's machine. */
+        private final Machine _enigma;
+    }
+
+    /** Start worker number INDEX, using ENIGMA, which first answers the
+     *  requests in BATCH, unless I have been shut down. */
+    private void startWorker(int index, Machine enigma,
+                             List<Request> batch) {
+        synchronized (_workers) {
+            if (_stopped) {
+                return;
+            }
+            _workers[index] = new Thread(new Worker(index, enigma, batch),
+                                         "enigma-worker-" + index);
+            _workers[index].setDaemon(true);
+            _workers[index].start();
+        }
+    }
+
+    /** Add REQUEST to the queue, waiting for room if necessary. */
+    private void enqueue(Request request) {
+        try {
+            _queue.put(request);
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        }
+    }
+
+    /** Return an executor running each task on a new virtual thread, if
+     *  the runtime supports them, and otherwise on a pooled platform
+     *  thread.  Virtual threads are found by reflection, so that this
+     *  class compiles and runs on runtimes without them. */
+    static ExecutorService connectionExecutor() {
+        try {
+            Object result = Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return (ExecutorService) result;
+        } catch (ReflectiveOperationException excp) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /** Complete REQUEST with the failure EXCP, counting it as answered
+     *  now. */
+    private void fail(Request request, Throwable excp) {
+        _errors.increment();
+        record(request);
+        request._result.completeExceptionally(excp);
+    }
+
+    /** Count REQUEST as answered now. */
+    private void record(Request request) {
+        long latency = System.nanoTime() - request._received;
+        _requests.increment();
+        _latency.add(latency);
+        _maxLatency.accumulateAndGet(latency, Math::max);
+        if (Metrics.ENABLED) {
+            Metrics.REQUEST_TIME.record(latency);
+        }
+    }
+
+    /** Wait for REQUEST to be answered, and write its response to
+     *  OUTPUT. */
+    private void respond(Request request, GroupWriter output) {
+        try {
+            output.write(request._result.join());
+            output.endLine();
+        } catch (CompletionException excp) {
+            Throwable cause = excp.getCause();
+            String msg = cause.getMessage();
+            if (msg == null) {
+                msg = cause.toString();
+            }
+            output.append("ERROR " + msg + "\n");
+        }
+    }
+
+    /** Return true iff INPUT can be read without blocking. */
+    private static boolean ready(BufferedReader input) {
+        try {
+            return input.ready();
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Return the next line from INPUT, or null at the end. */
+    private static String readLine(BufferedReader input) {
+        try {
+            return input.readLine();
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        }
+    }
+
+    /** Interprets settings lines. */
+    private final Main _main;
+
+    /** The worker threads.  Guarded by itself. */
+    private final Thread[] _workers;
+
+    /** True iff I have been shut down.  Guarded by _workers. */
+    private boolean _stopped;
+
+    /** Requests waiting for a worker. */
+    private final BlockingQueue<Request> _queue =
+        new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /** Time at which the server started, in nanoseconds. */
+    private final long _started = System.nanoTime();
+
+    /** Numbers of requests answered and failed, and of characters
+     *  converted. */
+    private final LongAdder _requests = new LongAdder(),
+        _errors = new LongAdder(), _chars = new LongAdder();
+
+    /** Total time from receipt to completion of all requests, in
+     *  nanoseconds. */
+    private final LongAdder _latency = new LongAdder();
+
+    /** Longest time from receipt to completion of a request, in
+     *  nanoseconds. */
+    private final AtomicLong _maxLatency = new AtomicLong();
+
+}
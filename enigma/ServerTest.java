@@ -0,0 +1,180 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+/** The suite of all JUnit tests for the Server class.
+ *  @author Yohan Yan
+ */
+public class ServerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A settings line for the configuration in ConfigurationTest. */
+    static final String SETTINGS = "* B Beta I II AXL (HQ) (EX)";
+
+    /** Return a Main for the configuration in ConfigurationTest. */
+    private static Main main() throws IOException {
+        File config = File.createTempFile("enigma", ".conf");
+        config.deleteOnExit();
+        try (Writer out = new FileWriter(config)) {
+            out.write(ConfigurationTest.CONFIG);
+        }
+        return new Main(new String[] { config.getPath() });
+    }
+
+    /** Return a server with THREADS workers for the configuration in
+     *  ConfigurationTest. */
+    private static Server server(int threads) throws IOException {
+        Main main = main();
+        return new Server(main, main.readConfig(), threads);
+    }
+
+    /** Return the responses of SERVER to the requests in INPUT, shutting
+     *  it down afterward. */
+    private static String serve(String input, Server server) {
+        StringWriter output = new StringWriter();
+        server.serve(new BufferedReader(new StringReader(input)),
+                     new GroupWriter(output));
+        server.shutdown();
+        return output.toString();
+    }
+
+    /** Return the responses of a server with THREADS workers to the
+     *  requests in INPUT. */
+    private static String serve(String input, int threads)
+        throws IOException {
+        return serve(input, server(threads));
+    }
+
+    /** Return the conversion of MSG with settings line SETTINGS on the
+     *  configuration in ConfigurationTest, in groups of five. */
+    private static String convert(String settings, String msg) {
+        Machine mach = Configuration.parse(ConfigurationTest.CONFIG)
+            .machine();
+        mach.insertRotors(new String[] { "B", "BETA", "I", "II" });
+        mach.setRotors(settings);
+        return mach.convert(msg).replaceAll("(.{5})(?=.)", "$1 ");
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testRequests() throws IOException {
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < Server.WINDOW + 10; i += 1) {
+            String msg = "MESSAGE NUMBER " + Integer.toString(i, 26)
+                .toUpperCase().replaceAll("[0-9]", "Q");
+            input.append("* B Beta I II AAA\n").append(msg).append('\n');
+            expected.append(convert("AAA", msg)).append('\n');
+            if (i % 100 == 0) {
+                input.append("* B Beta I II\nABC\n\n");
+                expected.append("ERROR incomplete settings line: ")
+                    .append("* B Beta I II\n");
+            }
+        }
+        assertEquals(expected.toString(), serve(input.toString(), 3));
+    }
+
+    @Test
+    public void testPlugboardPerRequest() throws IOException {
+        Machine mach = Configuration.parse(ConfigurationTest.CONFIG)
+            .machine();
+        mach.insertRotors(new String[] { "B", "BETA", "I", "II" });
+        mach.setRotors("AXL");
+        mach.setPlugboard(new Permutation("(HQ) (EX)", mach.alphabet()));
+        String plugged = mach.convert("HELLOWORLD");
+        String response = serve(SETTINGS + "\nHELLO WORLD\n"
+                                + "* B Beta I II AXL\nHELLO WORLD\n", 1);
+        assertEquals(plugged.substring(0, 5) + " " + plugged.substring(5)
+                     + "\n" + convert("AXL", "HELLOWORLD") + "\n",
+                     response);
+    }
+
+    @Test
+    public void testStats() throws IOException {
+        String response = serve(SETTINGS + "\nHELLO\nSTATS\n"
+                                + SETTINGS + "\n", 2);
+        String[] lines = response.split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[1].startsWith("requests=1 errors=0 chars=5 "));
+        assertEquals("ERROR missing message line", lines[2]);
+    }
+
+    @Test
+    public void testWorkerError() throws IOException {
+        Main main = main();
+        Machine enigma = main.readConfig();
+        Machine failing =
+            new Machine(enigma.alphabet(), enigma.numRotors(),
+                        enigma.numPawls(),
+                        Arrays.asList(enigma.availableRotors())) {
+                @Override
+                Machine copy() {
+                    return this;
+                }
+
+                @Override
+                String convert(String msg) {
+                    if (msg.equals("OVERFLOW")) {
+                        throw new StackOverflowError();
+                    }
+                    return super.convert(msg);
+                }
+            };
+        String request = "* B Beta I II AAA\nHELLO\n";
+        String response =
+            serve(request + SETTINGS + "\nOVERFLOW\n" + request + request,
+                  new Server(main, failing, 1));
+        String hello = convert("AAA", "HELLO") + "\n";
+        assertEquals(hello + "ERROR java.lang.StackOverflowError\n" + hello
+                     + hello, response);
+    }
+
+    @Test
+    public void testConnection() throws Exception {
+        Server server = server(2);
+        ExecutorService connections = Server.connectionExecutor();
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (ServerSocket listener = new ServerSocket(0, 1, loopback);
+             Socket client = new Socket(loopback,
+                                        listener.getLocalPort())) {
+            Socket accepted = listener.accept();
+            connections.execute(() -> server.connect(accepted));
+            Writer out = new OutputStreamWriter(client.getOutputStream());
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(client.getInputStream()));
+            out.write("* B Beta I II AAA\nHELLO WORLD\n");
+            out.flush();
+            assertEquals(convert("AAA", "HELLOWORLD"), in.readLine());
+            out.write("STATS\n");
+            out.flush();
+            assertTrue(in.readLine().startsWith("requests=1 "));
+        } finally {
+            connections.shutdownNow();
+            server.shutdown();
+        }
+    }
+}
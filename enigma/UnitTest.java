@@ -10,7 +10,10 @@ public class UnitTest {
     /** Run the JUnit tests in this package. Add xxxTest.class entries to
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
-        textui.runClasses(PermutationTest.class, MovingRotorTest.class);
+        textui.runClasses(PermutationTest.class, MovingRotorTest.class,
+                          MachineTest.class, KeySearchTest.class,
+                          ConfigurationTest.class, ServerTest.class,
+                          MetricsTest.class, MainTest.class);
     }
 
 }